@@ -0,0 +1,179 @@
+package mona.android.customcomponents.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A minimal benchmark harness: runs an operation in timed samples after a warm-up, and writes the
+ * time and allocations per operation as a JSON file named after the benchmark, so that results of
+ * two releases can be diffed.
+ */
+final class Benchmark {
+
+    static final String OUTPUT_DIR_PROPERTY = "benchmark.outputDir";
+
+    private static final int WARMUP_SAMPLES = 10;
+    private static final int MEASURED_SAMPLES = 30;
+    // Each sample runs for about this long, so that the clock resolution doesn't matter.
+    private static final long TARGET_SAMPLE_NANOS = 10000000L;
+
+    /**
+     * The operation to measure, called many times in a row.
+     */
+    abstract static class Operation {
+        /**
+         * @param iteration the number of calls made before this one, to alternate inputs
+         */
+        abstract void run(int iteration);
+    }
+
+    /**
+     * The results of a benchmark, in nanoseconds and bytes per operation.
+     */
+    static final class Result {
+        final String name;
+        final int operationsPerSample;
+        final double[] sampleNanos;
+        final double meanNanos;
+        final double medianNanos;
+        final double minNanos;
+        final double p90Nanos;
+        // -1 when the JVM can't count allocations
+        final double allocatedBytes;
+
+        Result(String name, int operationsPerSample, double[] sampleNanos, double allocatedBytes) {
+            this.name = name;
+            this.operationsPerSample = operationsPerSample;
+            this.sampleNanos = sampleNanos;
+            this.allocatedBytes = allocatedBytes;
+
+            final double[] sorted = sampleNanos.clone();
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (double sample : sorted) {
+                sum += sample;
+            }
+            meanNanos = sum / sorted.length;
+            medianNanos = sorted[sorted.length / 2];
+            minNanos = sorted[0];
+            p90Nanos = sorted[(int) Math.ceil(sorted.length * 0.9) - 1];
+        }
+
+        String toJson() {
+            final StringBuilder json = new StringBuilder();
+            json.append("{\n");
+            json.append("  \"benchmark\": \"").append(name).append("\",\n");
+            json.append("  \"unit\": \"ns/op\",\n");
+            json.append("  \"samples\": ").append(sampleNanos.length).append(",\n");
+            json.append("  \"operationsPerSample\": ").append(operationsPerSample).append(",\n");
+            json.append("  \"mean\": ").append(format(meanNanos)).append(",\n");
+            json.append("  \"median\": ").append(format(medianNanos)).append(",\n");
+            json.append("  \"min\": ").append(format(minNanos)).append(",\n");
+            json.append("  \"p90\": ").append(format(p90Nanos)).append(",\n");
+            json.append("  \"allocatedBytesPerOp\": ").append(format(allocatedBytes)).append(",\n");
+            json.append("  \"java\": \"").append(System.getProperty("java.version"))
+                    .append("\"\n");
+            json.append("}\n");
+            return json.toString();
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.US, "%.2f", value);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Measures the operation and writes its results.
+     *
+     * @param name the name of the benchmark, also the name of its result file
+     */
+    static Result run(String name, Operation operation) throws IOException {
+        final int operationsPerSample = calibrate(operation);
+        int iteration = 0;
+        for (int i = 0; i < WARMUP_SAMPLES; i++) {
+            iteration = runSample(operation, iteration, operationsPerSample);
+        }
+
+        final double[] sampleNanos = new double[MEASURED_SAMPLES];
+        final long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < MEASURED_SAMPLES; i++) {
+            final long start = System.nanoTime();
+            iteration = runSample(operation, iteration, operationsPerSample);
+            sampleNanos[i] = (double) (System.nanoTime() - start) / operationsPerSample;
+        }
+        final long allocatedAfter = allocatedBytes();
+        final double allocated = allocatedBefore < 0 ? -1
+                : (double) (allocatedAfter - allocatedBefore)
+                        / ((long) MEASURED_SAMPLES * operationsPerSample);
+
+        final Result result = new Result(name, operationsPerSample, sampleNanos, allocated);
+        write(result);
+        return result;
+    }
+
+    private static int runSample(Operation operation, int iteration, int count) {
+        for (int i = 0; i < count; i++) {
+            operation.run(iteration++);
+        }
+        return iteration;
+    }
+
+    /**
+     * @return The number of operations taking about {@link #TARGET_SAMPLE_NANOS}.
+     */
+    private static int calibrate(Operation operation) {
+        int count = 1;
+        int iteration = 0;
+        while (true) {
+            final long start = System.nanoTime();
+            iteration = runSample(operation, iteration, count);
+            final long elapsed = System.nanoTime() - start;
+            if (elapsed >= TARGET_SAMPLE_NANOS || count >= 1 << 24) {
+                return count;
+            }
+            count = elapsed <= 0 ? count * 10
+                    : (int) Math.min(count * 10L, Math.max(count + 1L,
+                            count * TARGET_SAMPLE_NANOS / elapsed));
+        }
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, or -1 if not supported.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static void write(Result result) throws IOException {
+        final File directory = new File(System.getProperty(OUTPUT_DIR_PROPERTY,
+                "build/benchmark-results"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        final Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, result.name + ".json")), "UTF-8");
+        try {
+            writer.write(result.toJson());
+        } finally {
+            writer.close();
+        }
+    }
+}
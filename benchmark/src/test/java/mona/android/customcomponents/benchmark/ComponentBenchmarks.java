@@ -0,0 +1,175 @@
+package mona.android.customcomponents.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import mona.android.customcomponents.CheckableLinearLayout;
+import mona.android.customcomponents.CompositeOnClickListener;
+import mona.android.customcomponents.HandleSpanClickTextView;
+import mona.android.customcomponents.ShapableImageView;
+import mona.android.customcomponents.ShowHideMasterLayout;
+
+/**
+ * Benchmarks of the hot paths of the components, on Robolectric: they measure the Java side of
+ * the work, drawing and text measurement being stubbed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ComponentBenchmarks {
+
+    /**
+     * Draws its content alone: Robolectric's {@link View#draw(Canvas)} only draws the background.
+     */
+    static final class DrawingShapableImageView extends ShapableImageView {
+        DrawingShapableImageView(Context context) {
+            super(context);
+        }
+
+        void drawContent(Canvas canvas) {
+            onDraw(canvas);
+        }
+    }
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    private static void layout(View view, int width, int height) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+    }
+
+    @Test
+    public void spanHitTest() throws IOException {
+        final SpannableStringBuilder text = new SpannableStringBuilder();
+        for (int i = 0; i < 50; i++) {
+            final int start = text.length();
+            text.append("link").append(Integer.toString(i));
+            text.setSpan(new ClickableSpan() {
+                @Override
+                public void onClick(View widget) {
+                }
+            }, start, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            text.append(" and some text between the links, ");
+        }
+        final HandleSpanClickTextView view = new HandleSpanClickTextView(mContext);
+        // Set as applications do, without asking for a spannable buffer
+        view.setText(text, TextView.BufferType.NORMAL);
+        layout(view, 480, 800);
+
+        final MotionEvent down = MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, 40, 10, 0);
+        final MotionEvent up = MotionEvent.obtain(0, 0, MotionEvent.ACTION_UP, 40, 10, 0);
+        Benchmark.run("HandleSpanClickTextView.hitTest", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                view.onTouchEvent((iteration & 1) == 0 ? down : up);
+            }
+        });
+        down.recycle();
+        up.recycle();
+    }
+
+    @Test
+    public void clickDispatch() throws IOException {
+        final CompositeOnClickListener composite = new CompositeOnClickListener();
+        final int[] clicks = new int[1];
+        for (int i = 0; i < 8; i++) {
+            composite.addOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    clicks[0]++;
+                }
+            }, i % 3);
+        }
+        final View view = new View(mContext);
+        Benchmark.run("CompositeOnClickListener.dispatch", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                composite.onClick(view);
+            }
+        });
+    }
+
+    @Test
+    public void checkedPropagation() throws IOException {
+        final CheckableLinearLayout row = new CheckableLinearLayout(mContext);
+        for (int i = 0; i < 10; i++) {
+            final FrameLayout group = new FrameLayout(mContext);
+            for (int j = 0; j < 9; j++) {
+                group.addView(new View(mContext));
+            }
+            group.addView(new CheckBox(mContext));
+            row.addView(group);
+        }
+        layout(row, 480, 100);
+
+        Benchmark.run("CheckableLinearLayout.setChecked", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                row.toggle();
+            }
+        });
+    }
+
+    @Test
+    public void masterMeasure() throws IOException {
+        final ShowHideMasterLayout layout = new ShowHideMasterLayout(mContext);
+        layout.addView(new View(mContext), new ViewGroup.MarginLayoutParams(300,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.addView(new View(mContext), new ViewGroup.MarginLayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        final int widthSpec = View.MeasureSpec.makeMeasureSpec(1200, View.MeasureSpec.EXACTLY);
+        final int heightSpec = View.MeasureSpec.makeMeasureSpec(1800, View.MeasureSpec.EXACTLY);
+
+        Benchmark.run("ShowHideMasterLayout.onMeasure", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                // Skip the measure cache, to run onMeasure every time
+                layout.forceLayout();
+                layout.measure(widthSpec, heightSpec);
+            }
+        });
+    }
+
+    @Test
+    public void shapableCacheRebuild() throws IOException {
+        final DrawingShapableImageView view = new DrawingShapableImageView(mContext);
+        view.setImageBitmap(Bitmap.createBitmap(400, 400, Bitmap.Config.ARGB_8888));
+        layout(view, 200, 200);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888));
+
+        Benchmark.run("ShapableImageView.rebuildCache", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                // A new scale type requires a new composite.
+                view.setScaleType((iteration & 1) == 0
+                        ? ImageView.ScaleType.CENTER_CROP : ImageView.ScaleType.FIT_CENTER);
+                view.drawContent(canvas);
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package mona.android.customcomponents.benchmark;
+
+import android.content.Context;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Transformation;
+import android.view.animation.TranslateAnimation;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import mona.android.customcomponents.GravityBounceInterpolator;
+import mona.android.customcomponents.R;
+import mona.android.customcomponents.SpringInterpolator;
+
+/**
+ * Benchmarks of the evaluation cost of the computed interpolators, and of the menu button bounce
+ * played from its keyframes or from {@link SpringInterpolator#createMenuButtonBounce()}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class InterpolatorBenchmarks {
+
+    // One evaluation per 60Hz frame over the bounce
+    private static final int FRAMES = 30;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void springInterpolation() throws IOException {
+        final SpringInterpolator interpolator = SpringInterpolator.createMenuButtonBounce();
+        final float[] sink = new float[1];
+        Benchmark.run("SpringInterpolator.getInterpolation", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                sink[0] += interpolator.getInterpolation((iteration % 100) / 100f);
+            }
+        });
+    }
+
+    @Test
+    public void gravityBounceInterpolation() throws IOException {
+        final GravityBounceInterpolator interpolator = new GravityBounceInterpolator(0.5f, 4);
+        final float[] sink = new float[1];
+        Benchmark.run("GravityBounceInterpolator.getInterpolation", new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                sink[0] += interpolator.getInterpolation((iteration % 100) / 100f);
+            }
+        });
+    }
+
+    @Test
+    public void menuButtonKeyframes() throws IOException {
+        runBounce("menu_btn_anim.keyframes",
+                AnimationUtils.loadAnimation(mContext, R.anim.menu_btn_anim));
+    }
+
+    @Test
+    public void menuButtonSpring() throws IOException {
+        final Animation animation = new TranslateAnimation(
+                Animation.RELATIVE_TO_PARENT, 0f, Animation.RELATIVE_TO_PARENT, 0f,
+                Animation.RELATIVE_TO_PARENT, 1f, Animation.RELATIVE_TO_PARENT, 0f);
+        animation.setDuration(SpringInterpolator.MENU_BUTTON_BOUNCE_DURATION);
+        animation.setInterpolator(SpringInterpolator.createMenuButtonBounce());
+        runBounce("menu_btn_anim.spring", animation);
+    }
+
+    /**
+     * Measures a whole run of an animation, evaluated once per frame.
+     */
+    private static void runBounce(String name, final Animation animation) throws IOException {
+        animation.initialize(100, 100, 480, 800);
+        final Transformation transformation = new Transformation();
+        final long frameMillis = SpringInterpolator.MENU_BUTTON_BOUNCE_DURATION / (FRAMES - 1);
+        Benchmark.run(name, new Benchmark.Operation() {
+            @Override
+            void run(int iteration) {
+                animation.setStartTime(0);
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    transformation.clear();
+                    animation.getTransformation(frame * frameMillis, transformation);
+                }
+            }
+        });
+    }
+}
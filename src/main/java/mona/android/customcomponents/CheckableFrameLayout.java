@@ -5,9 +5,10 @@ import android.util.AttributeSet;
 import android.widget.Checkable;
 import android.widget.FrameLayout;
 
-public class CheckableFrameLayout extends FrameLayout implements Checkable {
+public class CheckableFrameLayout extends FrameLayout implements Checkable, RecyclableComponent {
 
     private boolean mChecked;
+    private CheckedStateBatcher.PendingChange mPendingChange;
 
     public CheckableFrameLayout(Context context) {
         super(context);
@@ -32,8 +33,39 @@ public class CheckableFrameLayout extends FrameLayout implements Checkable {
 
     @Override
     public void setChecked(boolean checked) {
+        final int trace = ComponentTrace.beginSection("CheckableFrameLayout#setChecked");
+        try {
+            applyChecked(checked);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private void applyChecked(boolean checked) {
+        final boolean checkedBefore = mChecked;
         mChecked = checked;
-        refreshDrawableState();
+        if (CheckedStateBatcher.isEnabled()) {
+            CheckedStateBatcher.getInstance().schedule(getPendingChange(), checkedBefore);
+        } else {
+            refreshDrawableState();
+        }
+    }
+
+    private CheckedStateBatcher.PendingChange getPendingChange() {
+        if (mPendingChange == null) {
+            mPendingChange = new CheckedStateBatcher.PendingChange() {
+                @Override
+                Checkable getCheckable() {
+                    return CheckableFrameLayout.this;
+                }
+
+                @Override
+                void apply(boolean changed) {
+                    refreshDrawableState();
+                }
+            };
+        }
+        return mPendingChange;
     }
 
     @Override
@@ -41,6 +73,18 @@ public class CheckableFrameLayout extends FrameLayout implements Checkable {
         setChecked(!mChecked);
     }
 
+    @Override
+    public void resetForReuse() {
+        if (mPendingChange != null && mPendingChange.pending) {
+            mPendingChange.checkedBefore = false;
+        }
+        if (mChecked) {
+            mChecked = false;
+            refreshDrawableState();
+        }
+        jumpDrawablesToCurrentState();
+    }
+
     @Override
     protected int[] onCreateDrawableState(int extraSpace) {
         final int[] drawableState = super.onCreateDrawableState(extraSpace + 1);
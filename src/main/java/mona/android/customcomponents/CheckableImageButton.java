@@ -4,25 +4,25 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
+import android.animation.TimeInterpolator;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.view.View;
-import android.view.animation.Animation;
-import android.view.animation.AnimationUtils;
 import android.widget.Checkable;
 import android.widget.ImageButton;
-import android.widget.ImageView;
 
 /**
  *  An imageview that have a checked state and toggles its state when clicked
  *  and have support for animation to be run when state changes (
  */
-public class CheckableImageButton extends ImageButton implements Checkable {
+public class CheckableImageButton extends ImageButton implements Checkable,
+        RecyclableComponent {
 
     private static final int DURATION = 300;
 
@@ -36,6 +36,17 @@ public class CheckableImageButton extends ImageButton implements Checkable {
     private static final int TYPE_CHECK_BOX = 1;
 
     private AnimatorListenerAdapter mAnimationListener = null;
+
+    // Icon change animation, built on first use and restarted for every change
+    private AnimatorSet mIconAnimator;
+    private AnimatorSet mIconInAnimator;
+    private TimeInterpolator mIconInInterpolator;
+    private int mIconResId;
+
+    private SelectionModel mSelectionModel;
+    private int mSelectionKey;
+
+    private CheckedStateBatcher.PendingChange mPendingChange;
     //optional checked / unchecked : to animate automaticaly
     public CheckableImageButton(Context context) {
         this(context, null);
@@ -44,18 +55,28 @@ public class CheckableImageButton extends ImageButton implements Checkable {
     public CheckableImageButton(Context context, AttributeSet attrs) {
         super(context, attrs);
 
-        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.CheckableImageButton);
-
-        mType = a.getInt(R.styleable.CheckableImageButton_type, TYPE_CHECK_BOX);
-        boolean animate = a.getBoolean(R.styleable.CheckableImageButton_animate, false);
-        final Animation animation = AnimationUtils.loadAnimation(getContext(), R.anim.menu_btn_anim);
+        mType = sTypeCache.get(context, attrs, 0);
         //temporarly setting up a default checkedlistener
 
         setChecked(false);
-
-        a.recycle();
     }
 
+    // Resolved type attribute, shared by all the buttons with the same style
+    private static final StyledAttributeCache<Integer> sTypeCache =
+            new StyledAttributeCache<Integer>(R.styleable.CheckableImageButton,
+                    new StyledAttributeCache.Resolver<Integer>() {
+                        @Override
+                        public Integer resolve(Resources res, TypedArray a) {
+                            return a.getInt(R.styleable.CheckableImageButton_type,
+                                    TYPE_CHECK_BOX);
+                        }
+
+                        @Override
+                        public boolean isShareable(Integer values) {
+                            return true;
+                        }
+                    });
+
     public void toggle() {
         setChecked(!mChecked);
     }
@@ -64,9 +85,69 @@ public class CheckableImageButton extends ImageButton implements Checkable {
         mAnimationListener = listener;
     }
 
+    /**
+     * Sets the interpolator of the part of the icon animation bringing the new icon in, for
+     * instance a {@link SpringInterpolator} or a {@link GravityBounceInterpolator}.
+     *
+     * @param interpolator the interpolator to use, or null for the default one
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    public void setIconInterpolator(TimeInterpolator interpolator) {
+        mIconInInterpolator = interpolator;
+        if (mIconInAnimator != null) {
+            mIconInAnimator.setInterpolator(interpolator);
+        }
+    }
+
+    /**
+     * Binds this button to an item of a {@link SelectionModel}. Clicks then go through the model,
+     * whose mode replaces this button's own type.
+     *
+     * @param model the model to bind to, or null to unbind
+     * @param key the key of the item shown by this button
+     */
+    public void setSelectionModel(SelectionModel model, int key) {
+        if (mSelectionModel != null) {
+            mSelectionModel.unbind(this);
+        }
+        mSelectionModel = model;
+        mSelectionKey = key;
+        if (model != null) {
+            model.bind(this, key);
+        }
+    }
+
+    /**
+     * Ends the icon animation without swapping the icon, and unchecks this button without
+     * notifying its listener.
+     */
+    @Override
+    public void resetForReuse() {
+        setSelectionModel(null, 0);
+        if (mIconAnimator != null && mIconAnimator.isStarted()) {
+            mIconResId = 0;
+            mIconAnimator.cancel();
+        }
+        clearAnimation();
+        setAlpha(1f);
+        setScaleX(1f);
+        setScaleY(1f);
+
+        if (mPendingChange != null && mPendingChange.pending) {
+            mPendingChange.checkedBefore = false;
+        }
+        if (mChecked) {
+            mChecked = false;
+            refreshDrawableState();
+        }
+        jumpDrawablesToCurrentState();
+    }
+
     @Override
     public boolean performClick() {
-        if (mType == TYPE_RADIO_BUTTON) {
+        if (mSelectionModel != null) {
+            mSelectionModel.toggle(mSelectionKey);
+        } else if (mType == TYPE_RADIO_BUTTON) {
             setChecked(true);
         } else if (mType == TYPE_CHECK_BOX) {
             toggle();
@@ -88,20 +169,58 @@ public class CheckableImageButton extends ImageButton implements Checkable {
      */
     public void setChecked(boolean checked) {
         if (mChecked != checked) {
-            mChecked = checked;
-            refreshDrawableState();
-            // Avoid infinite recursions if setChecked() is called from a listener
-            if (mBroadcasting) {
-                return;
-            }
-            mBroadcasting = true;
-            if (mOnCheckedChangeListener != null) {
-                mOnCheckedChangeListener.onCheckedChanged(this, mChecked);
+            final int trace = ComponentTrace.beginSection("CheckableImageButton#setChecked");
+            try {
+                applyChecked(checked);
+            } finally {
+                ComponentTrace.endSection(trace);
             }
-            mBroadcasting = false;
         }
     }
 
+    private void applyChecked(boolean checked) {
+        mChecked = checked;
+        if (CheckedStateBatcher.isEnabled()) {
+            // Refresh and broadcast once, on the next frame
+            CheckedStateBatcher.getInstance().schedule(getPendingChange(), !checked);
+            return;
+        }
+        refreshDrawableState();
+        broadcastCheckedChanged();
+    }
+
+    private void broadcastCheckedChanged() {
+        // Avoid infinite recursions if setChecked() is called from a listener
+        if (mBroadcasting) {
+            return;
+        }
+        mBroadcasting = true;
+        if (mOnCheckedChangeListener != null) {
+            mOnCheckedChangeListener.onCheckedChanged(this, mChecked);
+        }
+        mBroadcasting = false;
+    }
+
+    private CheckedStateBatcher.PendingChange getPendingChange() {
+        if (mPendingChange == null) {
+            mPendingChange = new CheckedStateBatcher.PendingChange() {
+                @Override
+                Checkable getCheckable() {
+                    return CheckableImageButton.this;
+                }
+
+                @Override
+                void apply(boolean changed) {
+                    refreshDrawableState();
+                    if (changed) {
+                        broadcastCheckedChanged();
+                    }
+                }
+            };
+        }
+        return mPendingChange;
+    }
+
     /**
      * Register a callback to be invoked when the checked state of this button changes.
      *
@@ -151,13 +270,13 @@ public class CheckableImageButton extends ImageButton implements Checkable {
 
         private SavedState(Parcel in) {
             super(in);
-            checked = (Boolean) in.readValue(null);
+            checked = in.readInt() != 0;
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
-            out.writeValue(checked);
+            out.writeInt(checked ? 1 : 0);
         }
 
         public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
@@ -184,8 +303,8 @@ public class CheckableImageButton extends ImageButton implements Checkable {
         SavedState ss = (SavedState) state;
 
         super.onRestoreInstanceState(ss.getSuperState());
+        // Only the drawable state depends on the checked state, no layout is needed.
         setChecked(ss.checked);
-        requestLayout();
     }
 
     //call this to set an animation that runs when a state changes
@@ -195,60 +314,63 @@ public class CheckableImageButton extends ImageButton implements Checkable {
             @Override
             public void onCheckedChanged(CheckableImageButton button, boolean isChecked) {
                 if(isChecked){
-                    animateIconTo(button, isChecked() ? checkedResId : uncheckedResId, true);
+                    animateIconTo(isChecked() ? checkedResId : uncheckedResId, true);
                 }
             }
         };
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
-    private void animateIconTo(final ImageView imageView,
-                                    final int currRestId,
-                                    boolean animate) {
-        if (hasICS() && imageView.getTag() != null) {
-            if (imageView.getTag() instanceof Animator) {
-                Animator anim = (Animator) imageView.getTag();
-                anim.end();
-                imageView.setAlpha(1f);
-            }
+    private void animateIconTo(final int currRestId, boolean animate) {
+        if (!hasICS()) {
+            return;
+        }
+
+        if (mIconAnimator != null && mIconAnimator.isStarted()) {
+            mIconAnimator.end();
+            setAlpha(1f);
         }
 
-        animate = animate && hasICS();
         if (animate) {
-            int duration = DURATION;
-            Animator outAnimator = ObjectAnimator.ofFloat(imageView, View.ALPHA, 0f);
-            outAnimator.setDuration(duration / 2);
-            outAnimator.addListener(new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationEnd(final Animator animator) {
-                    if(mAnimationListener != null){
-                        mAnimationListener.onAnimationEnd(animator);
-                        if(currRestId > 0){
-                            imageView.setImageResource(currRestId);
-                        }
+            if (mIconAnimator == null) {
+                mIconAnimator = createIconAnimator();
+            }
+            mIconResId = currRestId;
+            mIconAnimator.start();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private AnimatorSet createIconAnimator() {
+        Animator outAnimator = ObjectAnimator.ofFloat(this, View.ALPHA, 1f, 0f);
+        outAnimator.setDuration(DURATION);
+        outAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(final Animator animator) {
+                if (mAnimationListener != null) {
+                    mAnimationListener.onAnimationEnd(animator);
+                    if (mIconResId > 0) {
+                        setImageResource(mIconResId);
                     }
                 }
-            });
-
-            AnimatorSet inAnimator = new AnimatorSet();
-            outAnimator.setDuration(duration);
-            inAnimator.playTogether(
-                    ObjectAnimator.ofFloat(imageView, View.ALPHA, 1f),
-                    ObjectAnimator.ofFloat(imageView, View.SCALE_X, 0f, 1f),
-                    ObjectAnimator.ofFloat(imageView, View.SCALE_Y, 0f, 1f)
-            );
-
-            AnimatorSet set = new AnimatorSet();
-            set.playSequentially(outAnimator, inAnimator);
-            set.addListener(new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    imageView.setTag(null);
-                }
-            });
-            imageView.setTag(set);
-            set.start();
+            }
+        });
+
+        AnimatorSet inAnimator = new AnimatorSet();
+        inAnimator.setDuration(DURATION);
+        inAnimator.playTogether(
+                ObjectAnimator.ofFloat(this, View.ALPHA, 0f, 1f),
+                ObjectAnimator.ofFloat(this, View.SCALE_X, 0f, 1f),
+                ObjectAnimator.ofFloat(this, View.SCALE_Y, 0f, 1f)
+        );
+        if (mIconInInterpolator != null) {
+            inAnimator.setInterpolator(mIconInInterpolator);
         }
+        mIconInAnimator = inAnimator;
+
+        AnimatorSet set = new AnimatorSet();
+        set.playSequentially(outAnimator, inAnimator);
+        return set;
     }
 
     public static boolean hasICS() {
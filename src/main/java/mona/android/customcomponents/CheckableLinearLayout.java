@@ -1,6 +1,9 @@
 package mona.android.customcomponents;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -12,18 +15,63 @@ import android.widget.Checkable;
 import android.widget.LinearLayout;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A custom linearlayout with support for checked state
+ *
+ * <p>The checked state is propagated to every {@link Checkable} descendant, nested rows and their
+ * descendants included. Checkable children are indexed as they are added or removed, through the
+ * hierarchy change listener of this layout, which still calls the one set with
+ * {@link #setOnHierarchyChangeListener(OnHierarchyChangeListener)}. The descendants of child view
+ * groups are indexed by a walk of those groups, kept until a view group child is added or
+ * removed, a layout request comes up from the subtree, or the layout is resized, and walked again
+ * while one of those groups waits for a layout.</p>
+ *
+ * <p>In {@link #TOUCH_MODE_ROW}, the default, the row takes every touch. In
+ * {@link #TOUCH_MODE_CHILDREN} a gesture starting on a visible clickable descendant goes to that
+ * descendant alone, and any other gesture to the row alone.</p>
  */
-public class CheckableLinearLayout extends LinearLayout implements Checkable {
+public class CheckableLinearLayout extends LinearLayout implements Checkable,
+        RecyclableComponent {
+
+    /**
+     * The row handles all the touches, its descendants get none.
+     */
+    public static final int TOUCH_MODE_ROW = 0;
+
+    /**
+     * Touches on clickable descendants go to them, the other ones to the row.
+     */
+    public static final int TOUCH_MODE_CHILDREN = 1;
 
     private boolean mChecked;
 
+    private int mTouchMode = TOUCH_MODE_ROW;
+
     private OnClickListener mToggleListener = null;
 
-    CompositeOnClickListener mGroupListener;
+    mona.android.customcomponents.CompositeOnClickListener mGroupListener;
+
+    // Checkable children, kept up to date by the hierarchy change listener.
+    private final ArrayList<Checkable> mCheckableChildren = new ArrayList<Checkable>();
+    // Children that are view groups, kept up to date by the hierarchy change listener.
+    private final ArrayList<ViewGroup> mChildGroups = new ArrayList<ViewGroup>();
+    // The checkable ones and their checkable descendants, walked again on the first change after
+    // they may have changed.
+    private final ArrayList<Checkable> mNestedCheckables = new ArrayList<Checkable>();
+    private boolean mNestedCheckablesValid;
+    private OnHierarchyChangeListener mOnHierarchyChangeListener;
+
+    // Descendants that may take touches in TOUCH_MODE_CHILDREN, in drawing order, rebuilt on
+    // the first touch after the hierarchy may have changed.
+    private final ArrayList<View> mTouchableDescendants = new ArrayList<View>();
+    private boolean mTouchableDescendantsValid;
+    private final Rect mHitRect = new Rect();
+
+    private SelectionModel mSelectionModel;
+    private int mSelectionKey;
+
+    private CheckedStateBatcher.PendingChange mPendingChange;
 
     private static final int[] CHECKED_STATE_SET = {
             android.R.attr.state_checked
@@ -36,30 +84,202 @@ public class CheckableLinearLayout extends LinearLayout implements Checkable {
 
     public CheckableLinearLayout(Context context, AttributeSet attrs) {
         super(context, attrs);
+        mTouchMode = sTouchModeCache.get(context, attrs, 0);
         init();
     }
 
+    // Resolved touch mode attribute, shared by all the rows with the same style
+    private static final StyledAttributeCache<Integer> sTouchModeCache =
+            new StyledAttributeCache<Integer>(R.styleable.CheckableLinearLayout,
+                    new StyledAttributeCache.Resolver<Integer>() {
+                        @Override
+                        public Integer resolve(Resources res, TypedArray a) {
+                            return a.getInt(R.styleable.CheckableLinearLayout_touchMode,
+                                    TOUCH_MODE_ROW);
+                        }
+
+                        @Override
+                        public boolean isShareable(Integer values) {
+                            return true;
+                        }
+                    });
+
     private void init() {
-        mGroupListener = new CompositeOnClickListener();
-        setOnClickListener(mGroupListener);
-        mGroupListener.addOnClickListener(new View.OnClickListener(){
-            @Override
-            public void onClick(View v){
-                setChecked(!isChecked());
-            }
-        });
+        super.setOnHierarchyChangeListener(mHierarchyTracker);
+        mGroupListener = new mona.android.customcomponents.CompositeOnClickListener();
+        setOnClickListener(mRowClickListener);
         setChecked(false);
     }
 
+    private final OnHierarchyChangeListener mHierarchyTracker = new OnHierarchyChangeListener() {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            if (child instanceof ViewGroup) {
+                mChildGroups.add((ViewGroup) child);
+                mNestedCheckablesValid = false;
+            } else if (child instanceof Checkable) {
+                mCheckableChildren.add((Checkable) child);
+            }
+            mTouchableDescendantsValid = false;
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            if (child instanceof ViewGroup) {
+                mChildGroups.remove(child);
+                mNestedCheckablesValid = false;
+            } else if (child instanceof Checkable) {
+                mCheckableChildren.remove(child);
+            }
+            mTouchableDescendantsValid = false;
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    };
+
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mOnHierarchyChangeListener = listener;
+    }
+
+    // Notifies the listeners added to the row, once performClick() toggled it.
+    private final OnClickListener mRowClickListener = new OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            mGroupListener.onClick(v);
+        }
+    };
+
+    /**
+     * Toggles the row, or its item of the bound {@link SelectionModel}, then calls the click
+     * listeners. A click toggles once, whatever the touch mode.
+     */
     @Override
     public boolean performClick() {
-        toggle();
+        if (mSelectionModel != null) {
+            mSelectionModel.toggle(mSelectionKey);
+        } else {
+            toggle();
+        }
         return super.performClick();
     }
 
+    /**
+     * Binds this row to an item of a {@link SelectionModel}. Clicks then toggle the item through
+     * the model, which applies its single, multiple or radio mode.
+     *
+     * @param model the model to bind to, or null to unbind
+     * @param key the key of the item shown by this row
+     */
+    public void setSelectionModel(SelectionModel model, int key) {
+        if (mSelectionModel != null) {
+            mSelectionModel.unbind(this);
+        }
+        mSelectionModel = model;
+        mSelectionKey = key;
+        if (model != null) {
+            model.bind(this, key);
+        }
+    }
+
+    /**
+     * Unchecks this row without notifying its descendants, which reset themselves, and removes its
+     * click listeners and selection model binding.
+     */
+    @Override
+    public void resetForReuse() {
+        setSelectionModel(null, 0);
+        mGroupListener.clear();
+        mToggleListener = null;
+        if (mPendingChange != null && mPendingChange.pending) {
+            mPendingChange.checkedBefore = false;
+        }
+        if (mChecked) {
+            mChecked = false;
+            refreshDrawableState();
+        }
+        // Recyclable descendants are reset on their own, others such as a CheckBox are unchecked
+        // here, through their listeners since they can't be reset quietly.
+        uncheckPlainCheckables(mCheckableChildren);
+        uncheckPlainCheckables(getNestedCheckables());
+        jumpDrawablesToCurrentState();
+    }
+
+    private static void uncheckPlainCheckables(ArrayList<Checkable> checkables) {
+        for (int i = 0, count = checkables.size(); i < count; i++) {
+            final Checkable checkable = checkables.get(i);
+            if (!(checkable instanceof RecyclableComponent) && checkable.isChecked()) {
+                checkable.setChecked(false);
+            }
+        }
+    }
+
+    /**
+     * @param touchMode {@link #TOUCH_MODE_ROW} or {@link #TOUCH_MODE_CHILDREN}
+     */
+    public void setTouchMode(int touchMode) {
+        mTouchMode = touchMode;
+    }
+
+    public int getTouchMode() {
+        return mTouchMode;
+    }
+
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
-        return onTouchEvent(ev);
+        final int trace =
+                ComponentTrace.beginSection("CheckableLinearLayout#onInterceptTouchEvent");
+        try {
+            return interceptTouchEvent(ev);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private boolean interceptTouchEvent(MotionEvent ev) {
+        if (mTouchMode == TOUCH_MODE_ROW) {
+            return onTouchEvent(ev);
+        }
+        // Decide once per gesture: intercepting the down sends the whole gesture to the row only,
+        // otherwise it is dispatched to the descendant under it.
+        return ev.getActionMasked() == MotionEvent.ACTION_DOWN
+                && !isOverTouchableDescendant(ev.getX(), ev.getY());
+    }
+
+    private boolean isOverTouchableDescendant(float x, float y) {
+        if (!mTouchableDescendantsValid || isLayoutRequested()) {
+            mTouchableDescendants.clear();
+            collectTouchableDescendants(this);
+            mTouchableDescendantsValid = !isLayoutRequested();
+        }
+        final ArrayList<View> descendants = mTouchableDescendants;
+        // Topmost first
+        for (int i = descendants.size() - 1; i >= 0; i--) {
+            final View view = descendants.get(i);
+            if ((view.isClickable() || view.isLongClickable()) && view.isShown()) {
+                mHitRect.set(0, 0, view.getWidth(), view.getHeight());
+                offsetDescendantRectToMyCoords(view, mHitRect);
+                if (mHitRect.contains((int) x, (int) y)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void collectTouchableDescendants(ViewGroup group) {
+        for (int i = 0, count = group.getChildCount(); i < count; i++) {
+            final View child = group.getChildAt(i);
+            mTouchableDescendants.add(child);
+            // A nested row handles its own descendants.
+            if (child instanceof ViewGroup && !(child instanceof CheckableLinearLayout)) {
+                collectTouchableDescendants((ViewGroup) child);
+            }
+        }
     }
 
     public void toggle() {
@@ -72,24 +292,124 @@ public class CheckableLinearLayout extends LinearLayout implements Checkable {
 
     public void setChecked(boolean checked) {
         if (mChecked != checked) {
-            mChecked = checked;
+            final int trace = ComponentTrace.beginSection("CheckableLinearLayout#setChecked");
+            try {
+                applyChecked(checked);
+            } finally {
+                ComponentTrace.endSection(trace);
+            }
+        }
+    }
+
+    private void applyChecked(boolean checked) {
+        mChecked = checked;
+        if (CheckedStateBatcher.isEnabled()) {
+            CheckedStateBatcher.getInstance().schedule(getPendingChange(), !checked);
+        } else {
             refreshDrawableState();
-            setCheckedRecursive(this, checked);
         }
+        setCheckedDescendants(checked);
+    }
+
+    private CheckedStateBatcher.PendingChange getPendingChange() {
+        if (mPendingChange == null) {
+            mPendingChange = new CheckedStateBatcher.PendingChange() {
+                @Override
+                Checkable getCheckable() {
+                    return CheckableLinearLayout.this;
+                }
+
+                @Override
+                void apply(boolean changed) {
+                    refreshDrawableState();
+                }
+            };
+        }
+        return mPendingChange;
+    }
+
+    private void setCheckedDescendants(boolean checked) {
+        final int count = setChecked(mCheckableChildren, checked)
+                + setChecked(getNestedCheckables(), checked);
+        ComponentMetrics.add(ComponentMetrics.CHECKED_PROPAGATIONS, count);
+    }
+
+    private static int setChecked(ArrayList<Checkable> checkables, boolean checked) {
+        final int count = checkables.size();
+        for (int i = 0; i < count; i++) {
+            checkables.get(i).setChecked(checked);
+        }
+        return count;
     }
 
-    private void setCheckedRecursive(ViewGroup parent, boolean checked) {
-        int count = parent.getChildCount();
-        for(int i = 0; i < count; i++ ) {
-            View v = parent.getChildAt(i);
-            if(v instanceof Checkable) {
-                ((Checkable) v).setChecked(checked);
+    private ArrayList<Checkable> getNestedCheckables() {
+        // Changes below a view group waiting for a layout don't request one here: only trust the
+        // walk while they are laid out.
+        if (!mNestedCheckablesValid || hasChildGroupAwaitingLayout()) {
+            mNestedCheckables.clear();
+            final ArrayList<ViewGroup> groups = mChildGroups;
+            for (int i = 0, count = groups.size(); i < count; i++) {
+                final ViewGroup group = groups.get(i);
+                if (group instanceof Checkable) {
+                    mNestedCheckables.add((Checkable) group);
+                }
+                indexCheckables(group);
             }
+            mNestedCheckablesValid = !hasChildGroupAwaitingLayout();
+        }
+        return mNestedCheckables;
+    }
 
-            if(v instanceof ViewGroup) {
-                setCheckedRecursive((ViewGroup)v, checked);
+    private boolean hasChildGroupAwaitingLayout() {
+        final ArrayList<ViewGroup> groups = mChildGroups;
+        // Null while the superclass is constructed
+        if (groups != null) {
+            for (int i = 0, count = groups.size(); i < count; i++) {
+                if (groups.get(i).isLayoutRequested()) {
+                    return true;
+                }
             }
         }
+        return false;
+    }
+
+    private void indexCheckables(ViewGroup group) {
+        for (int i = 0, count = group.getChildCount(); i < count; i++) {
+            final View child = group.getChildAt(i);
+            if (child instanceof Checkable) {
+                mNestedCheckables.add((Checkable) child);
+            }
+            if (child instanceof ViewGroup) {
+                indexCheckables((ViewGroup) child);
+            }
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        // Views added to or removed from the nested view groups request a layout up to here,
+        // through the child group holding them.
+        if (hasChildGroupAwaitingLayout()) {
+            mNestedCheckablesValid = false;
+            mTouchableDescendantsValid = false;
+        }
+        super.requestLayout();
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        // Nested adapter views may add views while resized, without requesting a layout, and
+        // nested groups may have changed while this layout was already waiting for one.
+        if (changed || hasChildGroupAwaitingLayout()) {
+            mNestedCheckablesValid = false;
+            mTouchableDescendantsValid = false;
+        }
+        final int trace = ComponentTrace.beginSection("CheckableLinearLayout#onLayout");
+        try {
+            super.onLayout(changed, l, t, r, b);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
     }
 
     /**************************/
@@ -130,13 +450,13 @@ public class CheckableLinearLayout extends LinearLayout implements Checkable {
 
         private SavedState(Parcel in) {
             super(in);
-            checked = (Boolean)in.readValue(null);
+            checked = in.readInt() != 0;
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
-            out.writeValue(checked);
+            out.writeInt(checked ? 1 : 0);
         }
 
         @Override
@@ -173,8 +493,8 @@ public class CheckableLinearLayout extends LinearLayout implements Checkable {
         SavedState ss = (SavedState) state;
 
         super.onRestoreInstanceState(ss.getSuperState());
+        // Only the drawable state depends on the checked state, no layout is needed.
         setChecked(ss.checked);
-        requestLayout();
     }
 
     public void addOnClickListener(View.OnClickListener clickListener){
@@ -190,27 +510,11 @@ public class CheckableLinearLayout extends LinearLayout implements Checkable {
         mGroupListener.addOnClickListener(mToggleListener);
     }
 
-    public class CompositeOnClickListener implements View.OnClickListener {
-        List<OnClickListener> listeners;
-
-        public CompositeOnClickListener() {
-            listeners = new ArrayList<OnClickListener>();
-        }
-
-        public void addOnClickListener(View.OnClickListener listener) {
-            listeners.add(listener);
-        }
-
-        //TODO: make sure remove(Obj) here works
-        public void removeOnClickListener(View.OnClickListener listener) {
-            listeners.remove(listener);
-        }
-
-        @Override
-        public void onClick(View v) {
-            for (View.OnClickListener listener : listeners) {
-                listener.onClick(v);
-            }
-        }
+    /**
+     * @deprecated Use the top-level {@link mona.android.customcomponents.CompositeOnClickListener}.
+     */
+    @Deprecated
+    public class CompositeOnClickListener
+            extends mona.android.customcomponents.CompositeOnClickListener {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package mona.android.customcomponents;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.widget.Checkable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces the checked state changes of {@link CheckableFrameLayout},
+ * {@link CheckableLinearLayout} and {@link CheckableImageButton} made within one frame.
+ *
+ * <p>While enabled, {@code setChecked} only records the new state. On the next frame each changed
+ * view refreshes its drawable state once and fires its own listener once if its state differs from
+ * the one before the batch, then {@link OnCheckedStatesChangedListener} receives all of them in a
+ * single call. Must only be used from the main thread.</p>
+ */
+public final class CheckedStateBatcher {
+
+    private static CheckedStateBatcher sInstance;
+    private static boolean sEnabled;
+
+    private ArrayList<PendingChange> mPending = new ArrayList<PendingChange>();
+    // The changes being applied, swapped with mPending on each flush
+    private ArrayList<PendingChange> mFlushing = new ArrayList<PendingChange>();
+    private final ArrayList<Checkable> mChanged = new ArrayList<Checkable>();
+    private boolean mFlushScheduled;
+
+    private OnCheckedStatesChangedListener mOnCheckedStatesChangedListener;
+
+    private Handler mHandler;
+    private Object mFrameCallback;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Interface definition for a callback invoked once per frame with the views whose checked
+     * state changed.
+     */
+    public static interface OnCheckedStatesChangedListener {
+        /**
+         * @param changed
+         *            The views whose checked state changed during the last frame. The list is
+         *            reused and must not be kept.
+         */
+        void onCheckedStatesChanged(List<Checkable> changed);
+    }
+
+    /**
+     * A checkable view's pending change, owned by the view.
+     */
+    abstract static class PendingChange {
+        boolean pending;
+        boolean checkedBefore;
+
+        abstract Checkable getCheckable();
+
+        /**
+         * Applies the coalesced change to the view.
+         *
+         * @param changed whether the checked state differs from the one before the batch
+         */
+        abstract void apply(boolean changed);
+    }
+
+    private CheckedStateBatcher() {
+    }
+
+    public static CheckedStateBatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new CheckedStateBatcher();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Enables or disables batching for all the checkable components. Changes pending when
+     * batching is disabled are still applied on the next frame. The flag is read without
+     * synchronization when views change, so it must only be set from the main thread.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public void setOnCheckedStatesChangedListener(OnCheckedStatesChangedListener listener) {
+        mOnCheckedStatesChangedListener = listener;
+    }
+
+    /**
+     * Records that a view's checked state is about to change from {@code checkedBefore}.
+     */
+    void schedule(PendingChange change, boolean checkedBefore) {
+        if (change.pending) {
+            return;
+        }
+        change.pending = true;
+        change.checkedBefore = checkedBefore;
+        mPending.add(change);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postFrameCallback();
+            } else {
+                if (mHandler == null) {
+                    mHandler = new Handler(Looper.getMainLooper());
+                }
+                mHandler.post(mFlushRunnable);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    flush();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(
+                (Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private void flush() {
+        // Changes made by listeners while we apply go to the other list, and are flushed on the
+        // next frame: each view is applied at most once per flush.
+        final ArrayList<PendingChange> pending = mPending;
+        mPending = mFlushing;
+        mFlushing = pending;
+
+        final ArrayList<Checkable> changed = mChanged;
+        for (int i = 0, count = pending.size(); i < count; i++) {
+            final PendingChange change = pending.get(i);
+            change.pending = false;
+            final boolean stateChanged =
+                    change.getCheckable().isChecked() != change.checkedBefore;
+            change.apply(stateChanged);
+            if (stateChanged) {
+                changed.add(change.getCheckable());
+            }
+        }
+        pending.clear();
+
+        if (!changed.isEmpty() && mOnCheckedStatesChangedListener != null) {
+            mOnCheckedStatesChangedListener.onCheckedStatesChanged(changed);
+        }
+        changed.clear();
+
+        mFlushScheduled = false;
+        if (!mPending.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+}
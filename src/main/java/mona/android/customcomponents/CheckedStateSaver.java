@@ -0,0 +1,131 @@
+package mona.android.customcomponents;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Checkable;
+
+/**
+ * Saves the checked state of all the {@link Checkable} descendants of a container as one packed
+ * bitset, instead of one saved state per view.
+ *
+ * <p>Typical use is to call {@link #disableViewStateSaving(ViewGroup)} once the container is
+ * populated, then to save and restore the container from the host's own instance state. Views are
+ * matched by their depth-first order, so the container must be rebuilt with the same structure
+ * before restoring.</p>
+ */
+public final class CheckedStateSaver {
+
+    private CheckedStateSaver() {
+    }
+
+    /**
+     * Stops the checkable descendants of the container from saving their own instance state.
+     */
+    public static void disableViewStateSaving(ViewGroup container) {
+        for (int i = 0, count = container.getChildCount(); i < count; i++) {
+            View child = container.getChildAt(i);
+            if (child instanceof Checkable) {
+                child.setSaveEnabled(false);
+            }
+            if (child instanceof ViewGroup) {
+                disableViewStateSaving((ViewGroup) child);
+            }
+        }
+    }
+
+    /**
+     * @return The checked states of all the checkable descendants of the container.
+     */
+    public static Parcelable saveCheckedStates(ViewGroup container) {
+        PackedBits bits = new PackedBits();
+        int count = saveCheckedStates(container, bits, 0);
+        return new SavedState(count, bits.toWords());
+    }
+
+    private static int saveCheckedStates(ViewGroup parent, PackedBits bits, int index) {
+        for (int i = 0, count = parent.getChildCount(); i < count; i++) {
+            View child = parent.getChildAt(i);
+            if (child instanceof Checkable) {
+                bits.set(index++, ((Checkable) child).isChecked());
+            }
+            if (child instanceof ViewGroup) {
+                index = saveCheckedStates((ViewGroup) child, bits, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Restores states saved by {@link #saveCheckedStates(ViewGroup)} in a single pass over the
+     * container. Only the checked state changes, so no layout is requested. Views past the saved
+     * count are left untouched.
+     */
+    public static void restoreCheckedStates(ViewGroup container, Parcelable state) {
+        SavedState ss = (SavedState) state;
+        restoreCheckedStates(container, new PackedBits(ss.words), 0, ss.count);
+    }
+
+    private static int restoreCheckedStates(ViewGroup parent, PackedBits bits, int index,
+            int savedCount) {
+        for (int i = 0, count = parent.getChildCount(); i < count && index < savedCount; i++) {
+            View child = parent.getChildAt(i);
+            if (child instanceof Checkable) {
+                ((Checkable) child).setChecked(bits.get(index++));
+            }
+            if (child instanceof ViewGroup) {
+                index = restoreCheckedStates((ViewGroup) child, bits, index, savedCount);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Checked states packed into longs, as produced by {@link CheckedStateSaver} and
+     * {@link SelectionModel#onSaveInstanceState()}.
+     */
+    static class SavedState implements Parcelable {
+        final int count;
+        final long[] words;
+
+        SavedState(int count, long[] words) {
+            this.count = count;
+            this.words = words;
+        }
+
+        private SavedState(Parcel in) {
+            count = in.readInt();
+            words = in.createLongArray();
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            out.writeInt(count);
+            out.writeLongArray(words);
+        }
+
+        @Override
+        public String toString() {
+            return "CheckedStateSaver.SavedState{"
+                    + Integer.toHexString(System.identityHashCode(this))
+                    + " count=" + count + "}";
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR
+                = new Parcelable.Creator<SavedState>() {
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+package mona.android.customcomponents;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in runtime counters for the components of this library.
+ *
+ * <p>Counters are disabled by default, in which case recording costs one static field read.
+ * Once enabled they are updated with lock-free atomic adds, and {@link #snapshot()} can be called
+ * from any thread, for instance from a debug screen or a periodic log.</p>
+ */
+public final class ComponentMetrics {
+
+    /** {@link ShapableImageView} draws served from the cache bitmap. */
+    public static final int SHAPABLE_CACHE_HITS = 0;
+    /** {@link ShapableImageView} draws that had to rebuild the cache bitmap. */
+    public static final int SHAPABLE_CACHE_REBUILDS = 1;
+    /**
+     * Bytes of {@link ShapableImageView} cache bitmaps allocated while metrics were enabled, minus
+     * the ones released since. Bitmaps allocated before the last {@link #reset()} aren't counted.
+     */
+    public static final int SHAPABLE_BITMAP_BYTES = 2;
+    /** Span hit-tests done by {@link HandleSpanClickTextView}. */
+    public static final int SPAN_HIT_TESTS = 3;
+    /** Total time spent in {@link HandleSpanClickTextView} span hit-tests, in nanoseconds. */
+    public static final int SPAN_HIT_TEST_NANOS = 4;
+    /** {@link ShowHideMasterLayout} measure passes. */
+    public static final int MASTER_MEASURES = 5;
+    /** {@link ShowHideMasterLayout} layout passes. */
+    public static final int MASTER_LAYOUTS = 6;
+    /** Checked states pushed to other views, by a parent layout or a {@link SelectionModel}. */
+    public static final int CHECKED_PROPAGATIONS = 7;
+
+    private static final String[] NAMES = {
+            "shapable_cache_hits",
+            "shapable_cache_rebuilds",
+            "shapable_bitmap_bytes",
+            "span_hit_tests",
+            "span_hit_test_nanos",
+            "master_measures",
+            "master_layouts",
+            "checked_propagations",
+    };
+
+    /**
+     * Returned by {@link #addAllocation(int, long)} for an allocation that wasn't counted.
+     */
+    static final int NOT_COUNTED = -1;
+
+    private static final AtomicLongArray sCounters = new AtomicLongArray(NAMES.length);
+
+    // Incremented by reset(), so that releasing an allocation counted before doesn't go negative.
+    private static volatile int sGeneration;
+
+    // Not volatile: read on every recorded event, written once when debugging is turned on.
+    static boolean sEnabled;
+
+    private ComponentMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Adds {@code delta} to a counter if metrics are enabled.
+     */
+    static void add(int counter, long delta) {
+        if (sEnabled) {
+            sCounters.addAndGet(counter, delta);
+        }
+    }
+
+    /**
+     * Adds the size of an allocation to a counter if metrics are enabled.
+     *
+     * @return A token to pass to {@link #releaseAllocation(int, long, int)} along with the same
+     *         size once the allocation is released, or {@link #NOT_COUNTED}.
+     */
+    static int addAllocation(int counter, long bytes) {
+        if (!sEnabled) {
+            return NOT_COUNTED;
+        }
+        final int generation = sGeneration;
+        sCounters.addAndGet(counter, bytes);
+        return generation;
+    }
+
+    /**
+     * Subtracts the size of a released allocation from a counter, if it was counted since the last
+     * reset. Metrics don't need to still be enabled.
+     *
+     * @param token the value returned by {@link #addAllocation(int, long)}
+     */
+    static void releaseAllocation(int counter, long bytes, int token) {
+        if (token != NOT_COUNTED && token == sGeneration) {
+            sCounters.addAndGet(counter, -bytes);
+        }
+    }
+
+    /**
+     * Resets all the counters to zero.
+     */
+    public static void reset() {
+        sGeneration = (sGeneration + 1) & Integer.MAX_VALUE;
+        for (int i = 0; i < NAMES.length; i++) {
+            sCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * @return A copy of the current value of every counter.
+     */
+    public static Snapshot snapshot() {
+        long[] values = new long[NAMES.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sCounters.get(i);
+        }
+        return new Snapshot(values);
+    }
+
+    /**
+     * The values of all the counters at a point in time.
+     */
+    public static final class Snapshot {
+        private final long[] mValues;
+
+        Snapshot(long[] values) {
+            mValues = values;
+        }
+
+        /**
+         * @param counter One of the counter constants of {@link ComponentMetrics}.
+         */
+        public long get(int counter) {
+            return mValues[counter];
+        }
+
+        public int size() {
+            return mValues.length;
+        }
+
+        public String getName(int counter) {
+            return NAMES[counter];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("ComponentMetrics{");
+            for (int i = 0; i < mValues.length; i++) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(NAMES[i]).append('=').append(mValues[i]);
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
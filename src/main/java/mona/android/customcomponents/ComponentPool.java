@@ -0,0 +1,343 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.AttributeSet;
+import android.util.Xml;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Pre-constructs components while the main thread is idle, and hands them out when the same
+ * components are inflated.
+ *
+ * <p>Register the component types and how many of each to keep, then call
+ * {@link #install(LayoutInflater)} before inflating the screen, typically with the activity's
+ * inflater before {@code setContentView}. A type registered with a layout is pooled once per
+ * distinct element of that type in the layout, and built with the attributes of that element, so
+ * that pooled views have their attributes applied. A pooled view is only used for an element
+ * setting the same attributes, apart from its id and {@code layout_} attributes; a type registered
+ * without a layout is only used for elements setting nothing else. Other elements are inflated as
+ * usual and counted as misses.</p>
+ */
+public class ComponentPool implements LayoutInflater.Factory2 {
+
+    private final Context mContext;
+    // Pools by tag name and attribute signature
+    private final HashMap<String, Pool> mPools = new HashMap<String, Pool>();
+    private final ArrayList<Pool> mPoolList = new ArrayList<Pool>();
+    // Hit and miss counts by tag name
+    private final HashMap<String, Stats> mStats = new HashMap<String, Stats>();
+
+    private LayoutInflater.Factory2 mDelegate;
+    private boolean mFillScheduled;
+
+    /**
+     * Views built with the same attributes.
+     */
+    private static final class Pool {
+        final Constructor<? extends View> constructor;
+        // The layout holding the element the views are built from, or 0 to build them without
+        // attributes.
+        final int layoutResId;
+        // The index of the element among the elements of the layout.
+        final int elementIndex;
+        final ArrayList<View> views = new ArrayList<View>();
+        int capacity;
+
+        Pool(Constructor<? extends View> constructor, int layoutResId, int elementIndex,
+                int capacity) {
+            this.constructor = constructor;
+            this.layoutResId = layoutResId;
+            this.elementIndex = elementIndex;
+            this.capacity = capacity;
+        }
+    }
+
+    private static final class Stats {
+        int hits;
+        int misses;
+    }
+
+    private final MessageQueue.IdleHandler mFillHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            // Build one view per idle call, to give input and frames a chance in between.
+            final boolean more = fillOne();
+            mFillScheduled = more;
+            return more;
+        }
+    };
+
+    /**
+     * @param context The context pooled views are built with, usually the activity.
+     */
+    public ComponentPool(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Keeps up to {@code count} pre-constructed views of the given type, built without attributes.
+     * Registering a type again changes its count.
+     *
+     * @param type A view class with a {@code (Context, AttributeSet)} constructor.
+     */
+    public void register(Class<? extends View> type, int count) {
+        registerPool(getConstructor(type), signature(null), 0, 0, count);
+    }
+
+    /**
+     * Keeps up to {@code count} pre-constructed views of the given type for each distinct element
+     * of that type in a layout, built with the attributes of the element. Registering the same
+     * elements again, from this layout or another one, changes their count.
+     *
+     * @param type A view class with a {@code (Context, AttributeSet)} constructor.
+     * @param layoutResId A layout holding elements of that type, for instance a list row.
+     */
+    public void register(Class<? extends View> type, int layoutResId, int count) {
+        final Constructor<? extends View> constructor = getConstructor(type);
+        final XmlResourceParser parser = mContext.getResources().getLayout(layoutResId);
+        boolean found = false;
+        try {
+            final AttributeSet attrs = Xml.asAttributeSet(parser);
+            int elementIndex = 0;
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT;
+                    event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                if (type.getName().equals(parser.getName())) {
+                    registerPool(constructor, signature(attrs), layoutResId, elementIndex, count);
+                    found = true;
+                }
+                elementIndex++;
+            }
+        } catch (XmlPullParserException e) {
+            throw new IllegalArgumentException("Could not read layout " + layoutResId, e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read layout " + layoutResId, e);
+        } finally {
+            parser.close();
+        }
+        if (!found) {
+            throw new IllegalArgumentException("Layout " + layoutResId + " has no "
+                    + type.getName() + " element");
+        }
+    }
+
+    private static Constructor<? extends View> getConstructor(Class<? extends View> type) {
+        try {
+            return type.getConstructor(Context.class, AttributeSet.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName()
+                    + " has no (Context, AttributeSet) constructor", e);
+        }
+    }
+
+    private void registerPool(Constructor<? extends View> constructor, String signature,
+            int layoutResId, int elementIndex, int count) {
+        final String name = constructor.getDeclaringClass().getName();
+        final String key = name + '\n' + signature;
+        final Pool pool = mPools.get(key);
+        if (pool != null) {
+            pool.capacity = count;
+            while (pool.views.size() > count) {
+                pool.views.remove(pool.views.size() - 1);
+            }
+            return;
+        }
+
+        final Pool newPool = new Pool(constructor, layoutResId, elementIndex, count);
+        mPools.put(key, newPool);
+        mPoolList.add(newPool);
+        if (!mStats.containsKey(name)) {
+            mStats.put(name, new Stats());
+        }
+    }
+
+    /**
+     * Sets a factory to try for tags that are not pooled, since an inflater takes a single one.
+     */
+    public void setDelegate(LayoutInflater.Factory2 delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Installs this pool as the factory of the inflater and starts filling it when idle.
+     *
+     * <p>An inflater only takes one factory. If one is already set, for instance by AppCompat,
+     * the pool is installed on a clone of the inflater, in front of the existing factory which
+     * keeps handling the other tags: inflate with the returned inflater.</p>
+     *
+     * @return The inflater to inflate pooled components with.
+     */
+    public LayoutInflater install(LayoutInflater inflater) {
+        LayoutInflater target = inflater;
+        if (inflater.getFactory() == this) {
+            prefill();
+            return inflater;
+        }
+        if (inflater.getFactory() != null) {
+            // A clone keeps the factories but can take another one, merged in front of them.
+            target = inflater.cloneInContext(inflater.getContext());
+        }
+        target.setFactory2(this);
+        prefill();
+        return target;
+    }
+
+    /**
+     * Fills the pool up to the registered counts during the next idle times of the main thread.
+     */
+    public void prefill() {
+        if (!mFillScheduled) {
+            mFillScheduled = true;
+            Looper.myQueue().addIdleHandler(mFillHandler);
+        }
+    }
+
+    /**
+     * Builds one missing view.
+     *
+     * @return Whether views are still missing.
+     */
+    boolean fillOne() {
+        for (int i = 0, count = mPoolList.size(); i < count; i++) {
+            final Pool pool = mPoolList.get(i);
+            if (pool.views.size() < pool.capacity) {
+                pool.views.add(newView(pool));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private View newView(Pool pool) {
+        if (pool.layoutResId == 0) {
+            return newView(pool, null);
+        }
+        final XmlResourceParser parser = mContext.getResources().getLayout(pool.layoutResId);
+        try {
+            int elementIndex = -1;
+            while (elementIndex < pool.elementIndex) {
+                final int event = parser.next();
+                if (event == XmlPullParser.START_TAG) {
+                    elementIndex++;
+                } else if (event == XmlPullParser.END_DOCUMENT) {
+                    throw new IllegalStateException("Layout " + pool.layoutResId + " changed");
+                }
+            }
+            return newView(pool, Xml.asAttributeSet(parser));
+        } catch (XmlPullParserException e) {
+            throw new IllegalStateException("Could not read layout " + pool.layoutResId, e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read layout " + pool.layoutResId, e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private View newView(Pool pool, AttributeSet attrs) {
+        try {
+            return pool.constructor.newInstance(mContext, attrs);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not construct "
+                    + pool.constructor.getDeclaringClass().getName(), e);
+        }
+    }
+
+    @Override
+    public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
+        final Stats stats = mStats.get(name);
+        if (stats == null) {
+            return mDelegate != null ? mDelegate.onCreateView(parent, name, context, attrs) : null;
+        }
+        final Pool pool = context == mContext
+                ? mPools.get(name + '\n' + signature(attrs)) : null;
+        if (pool == null || pool.views.isEmpty()) {
+            stats.misses++;
+            return null;
+        }
+
+        stats.hits++;
+        final View view = pool.views.remove(pool.views.size() - 1);
+        view.setId(attrs.getIdAttributeResourceValue(View.NO_ID));
+        prefill();
+        return view;
+    }
+
+    @Override
+    public View onCreateView(String name, Context context, AttributeSet attrs) {
+        return onCreateView(null, name, context, attrs);
+    }
+
+    /**
+     * Describes the attributes a view is built with: its style and the attributes it sets, apart
+     * from its id, set on pooled views when they are handed out, and the layout params read by the
+     * parent.
+     */
+    private static String signature(AttributeSet attrs) {
+        if (attrs == null) {
+            return "";
+        }
+        final StringBuilder signature = new StringBuilder();
+        signature.append(attrs.getStyleAttribute());
+        for (int i = 0, count = attrs.getAttributeCount(); i < count; i++) {
+            final int nameResource = attrs.getAttributeNameResource(i);
+            final String name = attrs.getAttributeName(i);
+            if (nameResource == android.R.attr.id || name.startsWith("layout_")
+                    || (nameResource == 0 && "style".equals(name))) {
+                continue;
+            }
+            signature.append(' ');
+            if (nameResource != 0) {
+                signature.append(nameResource);
+            } else {
+                signature.append(name);
+            }
+            signature.append('=').append(attrs.getAttributeValue(i));
+        }
+        return signature.toString();
+    }
+
+    /**
+     * @return The number of views of the given type taken from the pool.
+     */
+    public int getHitCount(Class<? extends View> type) {
+        final Stats stats = mStats.get(type.getName());
+        return stats != null ? stats.hits : 0;
+    }
+
+    /**
+     * @return The number of views of the given type that had to be inflated, because the pool was
+     * empty or no views were pooled with the attributes of the element.
+     */
+    public int getMissCount(Class<? extends View> type) {
+        final Stats stats = mStats.get(type.getName());
+        return stats != null ? stats.misses : 0;
+    }
+
+    /**
+     * @return The number of views of the given type currently pooled, for all their attributes.
+     */
+    public int getPooledCount(Class<? extends View> type) {
+        int pooled = 0;
+        for (int i = 0, count = mPoolList.size(); i < count; i++) {
+            final Pool pool = mPoolList.get(i);
+            if (pool.constructor.getDeclaringClass() == type) {
+                pooled += pool.views.size();
+            }
+        }
+        return pooled;
+    }
+}
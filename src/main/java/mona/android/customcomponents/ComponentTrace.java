@@ -0,0 +1,185 @@
+package mona.android.customcomponents;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Named trace sections around the measure, layout, draw and touch work of the components.
+ *
+ * <p>Tracing is off by default. In {@link #MODE_SYSTEM} sections go to {@link Trace}, where they
+ * show up in systrace; below Jelly Bean MR2 they fall back to the ring buffer. In
+ * {@link #MODE_RING_BUFFER} the last sections are kept in memory and can be written with
+ * {@link #dump(Writer)} as a Chrome trace event file, readable by chrome://tracing. Sections are
+ * expected to be opened and closed on the main thread.</p>
+ *
+ * <p>{@link #beginSection(String)} returns a token telling how the section was opened, to pass to
+ * {@link #endSection(int)} from a {@code finally} block. A section is closed the way it was opened
+ * even if the mode changed in between, and one opened while tracing was off is never closed.</p>
+ */
+public final class ComponentTrace {
+
+    public static final int MODE_OFF = 0;
+    public static final int MODE_SYSTEM = 1;
+    public static final int MODE_RING_BUFFER = 2;
+
+    // Tokens returned by beginSection: ring buffer sections return their depth plus TOKEN_RING.
+    private static final int TOKEN_NONE = 0;
+    private static final int TOKEN_SYSTEM = 1;
+    private static final int TOKEN_RING = 2;
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int MAX_DEPTH = 64;
+
+    // Written from any thread when tracing is turned on or off, read on every section.
+    private static volatile int sMode = MODE_OFF;
+
+    // Sections currently open, recorded in the ring buffer when closed.
+    private static final String[] sOpenNames = new String[MAX_DEPTH];
+    private static final long[] sOpenStarts = new long[MAX_DEPTH];
+    private static int sDepth;
+
+    // Ring buffer of closed sections.
+    private static String[] sNames;
+    private static long[] sStarts;
+    private static long[] sDurations;
+    private static int sNext;
+    private static int sCount;
+
+    private ComponentTrace() {
+    }
+
+    /**
+     * @param mode One of {@link #MODE_OFF}, {@link #MODE_SYSTEM} or {@link #MODE_RING_BUFFER}.
+     */
+    public static synchronized void setMode(int mode) {
+        if (mode == MODE_SYSTEM && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            mode = MODE_RING_BUFFER;
+        }
+        if (mode == MODE_RING_BUFFER && sNames == null) {
+            allocateRingBuffer(DEFAULT_CAPACITY);
+        }
+        // Open sections keep their depth: each one is closed through its token.
+        sMode = mode;
+    }
+
+    public static int getMode() {
+        return sMode;
+    }
+
+    /**
+     * Sets the number of sections kept by the ring buffer, dropping the ones recorded so far.
+     */
+    public static synchronized void setRingBufferCapacity(int capacity) {
+        allocateRingBuffer(capacity);
+    }
+
+    private static void allocateRingBuffer(int capacity) {
+        sNames = new String[capacity];
+        sStarts = new long[capacity];
+        sDurations = new long[capacity];
+        sNext = 0;
+        sCount = 0;
+    }
+
+    /**
+     * Opens a section if tracing is on.
+     *
+     * @return The token to pass to {@link #endSection(int)}.
+     */
+    static int beginSection(String name) {
+        final int mode = sMode;
+        if (mode == MODE_SYSTEM) {
+            beginSystemSection(name);
+            return TOKEN_SYSTEM;
+        } else if (mode == MODE_RING_BUFFER) {
+            final int depth = sDepth;
+            if (depth < MAX_DEPTH) {
+                sOpenNames[depth] = name;
+                sOpenStarts[depth] = System.nanoTime();
+            }
+            sDepth = depth + 1;
+            return TOKEN_RING + depth;
+        }
+        return TOKEN_NONE;
+    }
+
+    /**
+     * Closes the section opened by the call of {@link #beginSection(String)} that returned
+     * {@code token}.
+     */
+    static void endSection(int token) {
+        if (token == TOKEN_SYSTEM) {
+            endSystemSection();
+        } else if (token >= TOKEN_RING) {
+            final int depth = token - TOKEN_RING;
+            // Ignore unbalanced calls rather than recording another section.
+            if (sDepth == depth + 1) {
+                sDepth = depth;
+                if (depth < MAX_DEPTH) {
+                    record(sOpenNames[depth], sOpenStarts[depth],
+                            System.nanoTime() - sOpenStarts[depth]);
+                }
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSystemSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSystemSection() {
+        Trace.endSection();
+    }
+
+    private static synchronized void record(String name, long start, long duration) {
+        if (sNames == null) {
+            return;
+        }
+        sNames[sNext] = name;
+        sStarts[sNext] = start;
+        sDurations[sNext] = duration;
+        sNext = (sNext + 1) % sNames.length;
+        if (sCount < sNames.length) {
+            sCount++;
+        }
+    }
+
+    /**
+     * Writes the sections held by the ring buffer, oldest first, in the Chrome trace event JSON
+     * format.
+     */
+    public static synchronized void dump(Writer writer) throws IOException {
+        final int pid = Process.myPid();
+        writer.write("{\"traceEvents\":[");
+        if (sNames != null) {
+            final int capacity = sNames.length;
+            final int first = (sNext - sCount + capacity) % capacity;
+            for (int i = 0; i < sCount; i++) {
+                final int index = (first + i) % capacity;
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write("\n{\"name\":\"");
+                writer.write(sNames[index]);
+                writer.write("\",\"ph\":\"X\",\"pid\":");
+                writer.write(Integer.toString(pid));
+                writer.write(",\"tid\":");
+                writer.write(Integer.toString(pid));
+                writer.write(",\"ts\":");
+                writer.write(Long.toString(sStarts[index] / 1000));
+                writer.write(",\"dur\":");
+                writer.write(Long.toString(sDurations[index] / 1000));
+                writer.write('}');
+            }
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+}
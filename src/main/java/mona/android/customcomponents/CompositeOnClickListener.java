@@ -0,0 +1,101 @@
+package mona.android.customcomponents;
+
+import android.view.View;
+
+/**
+ * A click listener dispatching to several listeners, in decreasing priority order and then in
+ * the order they were added.
+ *
+ * <p>Listeners are kept in an array that is copied on every change, so dispatching allocates
+ * nothing and listeners may add or remove listeners while being notified: the change takes effect
+ * from the next click.</p>
+ */
+public class CompositeOnClickListener implements View.OnClickListener {
+
+    public static final int PRIORITY_DEFAULT = 0;
+
+    private static final View.OnClickListener[] EMPTY_LISTENERS = new View.OnClickListener[0];
+    private static final int[] EMPTY_PRIORITIES = new int[0];
+
+    private View.OnClickListener[] mListeners = EMPTY_LISTENERS;
+    private int[] mPriorities = EMPTY_PRIORITIES;
+
+    public void addOnClickListener(View.OnClickListener listener) {
+        addOnClickListener(listener, PRIORITY_DEFAULT);
+    }
+
+    /**
+     * Adds a listener notified before the listeners of lower priority.
+     */
+    public void addOnClickListener(View.OnClickListener listener, int priority) {
+        final View.OnClickListener[] listeners = mListeners;
+        final int[] priorities = mPriorities;
+        final int count = listeners.length;
+
+        int index = 0;
+        while (index < count && priorities[index] >= priority) {
+            index++;
+        }
+
+        final View.OnClickListener[] newListeners = new View.OnClickListener[count + 1];
+        final int[] newPriorities = new int[count + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, index);
+        System.arraycopy(priorities, 0, newPriorities, 0, index);
+        newListeners[index] = listener;
+        newPriorities[index] = priority;
+        System.arraycopy(listeners, index, newListeners, index + 1, count - index);
+        System.arraycopy(priorities, index, newPriorities, index + 1, count - index);
+
+        mListeners = newListeners;
+        mPriorities = newPriorities;
+    }
+
+    /**
+     * Removes the first registration of a listener equal to the given one, if any.
+     */
+    public void removeOnClickListener(View.OnClickListener listener) {
+        final View.OnClickListener[] listeners = mListeners;
+        final int count = listeners.length;
+
+        int index = 0;
+        while (index < count && !(listener == null
+                ? listeners[index] == null : listener.equals(listeners[index]))) {
+            index++;
+        }
+        if (index == count) {
+            return;
+        }
+        if (count == 1) {
+            mListeners = EMPTY_LISTENERS;
+            mPriorities = EMPTY_PRIORITIES;
+            return;
+        }
+
+        final View.OnClickListener[] newListeners = new View.OnClickListener[count - 1];
+        final int[] newPriorities = new int[count - 1];
+        System.arraycopy(listeners, 0, newListeners, 0, index);
+        System.arraycopy(mPriorities, 0, newPriorities, 0, index);
+        System.arraycopy(listeners, index + 1, newListeners, index, count - index - 1);
+        System.arraycopy(mPriorities, index + 1, newPriorities, index, count - index - 1);
+
+        mListeners = newListeners;
+        mPriorities = newPriorities;
+    }
+
+    /**
+     * Removes all the listeners, without allocating.
+     */
+    public void clear() {
+        mListeners = EMPTY_LISTENERS;
+        mPriorities = EMPTY_PRIORITIES;
+    }
+
+    @Override
+    public void onClick(View v) {
+        // Snapshot: changes made by listeners don't affect this dispatch.
+        final View.OnClickListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onClick(v);
+        }
+    }
+}
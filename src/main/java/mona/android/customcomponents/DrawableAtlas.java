@@ -0,0 +1,175 @@
+package mona.android.customcomponents;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * Shared bitmaps holding the rasterized masks and borders of {@link ShapableImageView}s.
+ *
+ * <p>While enabled, views draw their mask and border from a region of the atlas instead of
+ * drawing the drawables: a mask is rasterized once for all the views of a grid, then copied into
+ * each composite when it is rebuilt, and borders are drawn from a few bitmaps, uploaded as
+ * textures under hardware acceleration. Regions are packed on shelves of {@link #PAGE_SIZE}
+ * pages the first time a drawable resource is used at a given size. Only the page being filled
+ * changes when a region is added, so a new region re-uploads that page alone. Stateful drawables,
+ * drawables that aren't resources, drawables larger than {@link #MAX_REGION_SIZE} and drawables
+ * coming after {@link #MAX_PAGES} pages are full are drawn as before.</p>
+ *
+ * <p>Regions are kept for the configuration and density they were rasterized in: once the
+ * resources change, the atlas starts over and views resolve their regions again. Drawables whose
+ * look depends on the theme should not be used with the atlas, since regions are only keyed by
+ * resource and size. Must only be used from the main thread, and enabled before the views are
+ * laid out.</p>
+ */
+public final class DrawableAtlas {
+
+    // Space left between regions, so that filtering never samples a neighbour.
+    private static final int PADDING = 1;
+
+    static final int PAGE_SIZE = 256;
+    static final int MAX_PAGES = 16;
+    // At least four regions per page, padding included.
+    static final int MAX_REGION_SIZE = (PAGE_SIZE - PADDING) / 2;
+
+    private static DrawableAtlas sInstance;
+    private static boolean sEnabled;
+
+    /**
+     * A drawable rasterized in a page of the atlas.
+     */
+    static final class Region {
+        final Bitmap page;
+        final Rect bounds;
+
+        Region(Bitmap page, Rect bounds) {
+            this.page = page;
+            this.bounds = bounds;
+        }
+    }
+
+    private final LongSparseArray<Region> mRegions = new LongSparseArray<Region>();
+    private int mPageCount;
+    private Bitmap mPage;
+    private final Canvas mCanvas = new Canvas();
+
+    // The shelf being filled in the current page, from its top left corner.
+    private int mShelfTop;
+    private int mShelfHeight;
+    private int mShelfX;
+
+    // The resources the regions were rasterized for, and how many times the atlas started over.
+    private Configuration mConfiguration;
+    private int mDensityDpi;
+    private int mGeneration;
+
+    private DrawableAtlas() {
+    }
+
+    static DrawableAtlas getInstance() {
+        if (sInstance == null) {
+            sInstance = new DrawableAtlas();
+        }
+        return sInstance;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Returns the generation of the atlas for the given resources, which changes when their
+     * configuration or density does: regions of another generation must be resolved again.
+     */
+    int getGeneration(Resources res) {
+        final Configuration configuration = res.getConfiguration();
+        final int densityDpi = res.getDisplayMetrics().densityDpi;
+        if (mConfiguration == null) {
+            mConfiguration = new Configuration(configuration);
+            mDensityDpi = densityDpi;
+        } else if (mDensityDpi != densityDpi || mConfiguration.diff(configuration) != 0) {
+            // Views still drawing from the old pages keep them until they resolve new regions.
+            mRegions.clear();
+            mPage = null;
+            mPageCount = 0;
+            mConfiguration.setTo(configuration);
+            mDensityDpi = densityDpi;
+            mGeneration++;
+        }
+        return mGeneration;
+    }
+
+    /**
+     * Returns the region of the atlas holding a drawable resource rasterized at the given size,
+     * adding it if needed.
+     *
+     * @return The region, or null if the drawable can't be or doesn't fit in the atlas.
+     */
+    Region getRegion(Resources res, Drawable drawable, int resId, int width, int height) {
+        if (resId == 0 || drawable.isStateful() || width <= 0 || height <= 0
+                || width > MAX_REGION_SIZE || height > MAX_REGION_SIZE) {
+            return null;
+        }
+        getGeneration(res);
+
+        final long key = ((long) resId << 32) | ((long) width << 16) | height;
+        Region region = mRegions.get(key);
+        if (region != null) {
+            return region;
+        }
+
+        final Rect bounds = allocate(width, height);
+        if (bounds == null) {
+            return null;
+        }
+        final Rect drawableBounds = drawable.copyBounds();
+        final Canvas canvas = mCanvas;
+        final int saveCount = canvas.save();
+        // Drawables may draw outside of their bounds, over the neighbouring regions.
+        canvas.clipRect(bounds);
+        drawable.setBounds(bounds);
+        drawable.draw(canvas);
+        drawable.setBounds(drawableBounds);
+        canvas.restoreToCount(saveCount);
+
+        region = new Region(mPage, bounds);
+        mRegions.put(key, region);
+        return region;
+    }
+
+    /**
+     * Places a region on the current shelf, or on a new one below it if it is too narrow, or on a
+     * new page if the current one is full.
+     */
+    private Rect allocate(int width, int height) {
+        if (mPage != null && mShelfX + width > PAGE_SIZE) {
+            mShelfTop += mShelfHeight + PADDING;
+            mShelfHeight = 0;
+            mShelfX = 0;
+        }
+        if (mPage == null || mShelfTop + height > PAGE_SIZE) {
+            if (mPageCount == MAX_PAGES) {
+                // Full
+                return null;
+            }
+            mPage = Bitmap.createBitmap(PAGE_SIZE, PAGE_SIZE, Bitmap.Config.ARGB_8888);
+            mPageCount++;
+            mCanvas.setBitmap(mPage);
+            mShelfTop = 0;
+            mShelfHeight = 0;
+            mShelfX = 0;
+        }
+        final Rect region = new Rect(mShelfX, mShelfTop, mShelfX + width, mShelfTop + height);
+        mShelfX += width + PADDING;
+        mShelfHeight = Math.max(mShelfHeight, height);
+        return region;
+    }
+}
@@ -0,0 +1,58 @@
+package mona.android.customcomponents;
+
+import android.view.animation.Interpolator;
+
+/**
+ * An interpolator following a ball dropped onto the end value, bouncing a given number of times.
+ * Each bounce keeps {@code restitution} of the impact speed, so it reaches {@code restitution}
+ * squared of the previous height. The curve is computed from these parameters on every call
+ * instead of being sampled from keyframes.
+ */
+public class GravityBounceInterpolator implements Interpolator {
+
+    private final float mRestitution;
+    private final int mBounces;
+    // Total time of the fall and all the bounces, in units of the initial fall time.
+    private final float mTotalTime;
+
+    /**
+     * @param restitution fraction of the speed kept at each bounce, between 0 and 1
+     * @param bounces number of bounces before coming to rest
+     */
+    public GravityBounceInterpolator(float restitution, int bounces) {
+        if (restitution < 0 || restitution >= 1) {
+            throw new IllegalArgumentException("restitution must be in [0, 1)");
+        }
+        mRestitution = restitution;
+        mBounces = bounces;
+
+        float totalTime = 1f;
+        float speed = 1f;
+        for (int i = 0; i < bounces; i++) {
+            speed *= restitution;
+            totalTime += 2 * speed;
+        }
+        mTotalTime = totalTime;
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        // With a fall time of 1 and a fall height of 1, gravity is 2 and the impact speed is 2.
+        float t = input * mTotalTime;
+        if (t < 1f) {
+            return t * t;
+        }
+        t -= 1f;
+
+        float speed = 1f;
+        for (int i = 0; i < mBounces; i++) {
+            speed *= mRestitution;
+            final float flightTime = 2 * speed;
+            if (t < flightTime) {
+                return 1f - (2 * speed * t - t * t);
+            }
+            t -= flightTime;
+        }
+        return 1f;
+    }
+}
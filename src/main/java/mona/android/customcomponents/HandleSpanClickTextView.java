@@ -13,7 +13,7 @@ import android.widget.TextView;
 /**
  * A custom TextView with support for clicking links
  */
-public class HandleSpanClickTextView extends TextView {
+public class HandleSpanClickTextView extends TextView implements RecyclableComponent {
 
 	public HandleSpanClickTextView(final Context context) {
 		super(context);
@@ -27,11 +27,47 @@ public class HandleSpanClickTextView extends TextView {
 		super(context, attrs, defStyle);
 	}
 
+	/**
+	 * Keeps the text in a spannable buffer, copied once here rather than on every touch, so that
+	 * the spans hit by a touch are selected in the displayed text.
+	 */
+	@Override
+	public void setText(final CharSequence text, final BufferType type) {
+		super.setText(text, type == BufferType.NORMAL ? BufferType.SPANNABLE : type);
+	}
+
+	/**
+	 * Clears the span selection and clickable state left by the last touch.
+	 */
+	@Override
+	public void resetForReuse() {
+		final CharSequence text = getText();
+		if (text instanceof Spannable) {
+			Selection.removeSelection((Spannable) text);
+		}
+		setClickable(false);
+		setPressed(false);
+	}
+
 	@Override
 	public boolean onTouchEvent(final MotionEvent event) {
-		final Spannable buffer = SpannableString.valueOf(getText());
+		final int trace = ComponentTrace.beginSection("HandleSpanClickTextView#onTouchEvent");
+		try {
+			return handleTouchEvent(event);
+		} finally {
+			ComponentTrace.endSection(trace);
+		}
+	}
+
+	private boolean handleTouchEvent(final MotionEvent event) {
+		final CharSequence text = getText();
+		// Spannable unless set by a path not going through setText(CharSequence, BufferType)
+		final Spannable buffer = text instanceof Spannable
+				? (Spannable) text : SpannableString.valueOf(text);
 		final int action = event.getAction();
 		if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_DOWN) {
+			final long hitTestStart = ComponentMetrics.isEnabled() ? System.nanoTime() : 0;
+
 			int x = (int) event.getX();
 			int y = (int) event.getY();
 
@@ -47,6 +83,12 @@ public class HandleSpanClickTextView extends TextView {
 
 			final ClickableSpan[] links = buffer.getSpans(off, off, ClickableSpan.class);
 
+			if (hitTestStart != 0) {
+				ComponentMetrics.add(ComponentMetrics.SPAN_HIT_TESTS, 1);
+				ComponentMetrics.add(ComponentMetrics.SPAN_HIT_TEST_NANOS,
+						System.nanoTime() - hitTestStart);
+			}
+
 			if (links.length != 0) {
 				final ClickableSpan link = links[0];
 				if (action == MotionEvent.ACTION_UP) {
@@ -64,4 +106,4 @@ public class HandleSpanClickTextView extends TextView {
 		}
 		return super.onTouchEvent(event);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,297 @@
+package mona.android.customcomponents;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The blurs of the image of a {@link ShapableImageView}, computed on a downsampled copy of the
+ * image on a background thread.
+ *
+ * <p>The view draws its image into {@link #beginInput(int, int, int[])}, at a fraction of its size
+ * chosen from the smallest blur radius, then calls {@link #endInput()}. Unless that input was
+ * already blurred, or is being blurred, its pixels are handed to the background thread, which
+ * blurs them in buffers of their own, and the listener is called on the main thread once the
+ * result can be drawn. Until then, {@link #draw(Canvas, Rect)} draws the last blur done, or the
+ * input, scaled up: a fine placeholder, blurs being meant for placeholders. Only downsampled
+ * bitmaps and pixels are kept, until {@link #release()}. Must be used from the main thread.</p>
+ */
+final class ImageBlur {
+
+    // Downsampling more than this makes the steps between the pixels of the result visible.
+    static final int MAX_DOWNSAMPLE = 8;
+
+    private static ExecutorService sBlurExecutor;
+
+    /**
+     * Interface definition for a callback invoked on the main thread when a blur is done.
+     */
+    interface OnBlurredListener {
+        void onBlurred();
+    }
+
+    /**
+     * The pixels of an input and the radii to blur it with, in downsampled pixels.
+     */
+    private static final class Input {
+        final int[] pixels;
+        final int width;
+        final int[] radii;
+
+        Input(int[] pixels, int width, int[] radii) {
+            this.pixels = pixels;
+            this.width = width;
+            this.radii = radii;
+        }
+
+        boolean isSameAs(Input other) {
+            return other != null && width == other.width && Arrays.equals(radii, other.radii)
+                    && Arrays.equals(pixels, other.pixels);
+        }
+    }
+
+    private static final class Job {
+        final Input input;
+        Future<?> future;
+
+        Job(Input input) {
+            this.input = input;
+        }
+    }
+
+    private final OnBlurredListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Canvas mInputCanvas = new Canvas();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // The image as last drawn, and the radii to blur it with, in downsampled pixels.
+    private Bitmap mInput;
+    private int[] mInputRadii;
+    // The blur in progress, if any, and the input of the last blur done with its result.
+    private Job mPending;
+    private Input mBlurredInput;
+    private Bitmap mOutput;
+
+    ImageBlur(OnBlurredListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the largest power of two, up to {@link #MAX_DOWNSAMPLE}, not over the smallest
+     * radius: a box of at least one pixel is then left to blur.
+     */
+    static int getDownsample(int[] radii) {
+        int smallest = Integer.MAX_VALUE;
+        for (int radius : radii) {
+            smallest = Math.min(smallest, radius);
+        }
+        int downsample = 1;
+        while (downsample * 2 <= Math.min(smallest, MAX_DOWNSAMPLE)) {
+            downsample *= 2;
+        }
+        return downsample;
+    }
+
+    /**
+     * Returns a canvas of the given size drawing into the downsampled input of the blurs.
+     *
+     * @param radii the radii of the blurs to apply in turn, in pixels of the given size
+     */
+    Canvas beginInput(int width, int height, int[] radii) {
+        final int downsample = getDownsample(radii);
+        final int inputWidth = (width + downsample - 1) / downsample;
+        final int inputHeight = (height + downsample - 1) / downsample;
+        if (mInput != null && mInput.getWidth() == inputWidth
+                && mInput.getHeight() == inputHeight) {
+            mInput.eraseColor(0);
+        } else {
+            mInput = Bitmap.createBitmap(inputWidth, inputHeight, Bitmap.Config.ARGB_8888);
+        }
+        mInputRadii = new int[radii.length];
+        for (int i = 0; i < radii.length; i++) {
+            mInputRadii[i] = Math.max(1, (radii[i] + downsample / 2) / downsample);
+        }
+        mInputCanvas.setBitmap(mInput);
+        mInputCanvas.save();
+        mInputCanvas.scale((float) inputWidth / width, (float) inputHeight / height);
+        return mInputCanvas;
+    }
+
+    /**
+     * Starts blurring the input drawn, unless it is already blurred or being blurred.
+     *
+     * @return Whether the blur of the input is done, and drawn by {@link #draw(Canvas, Rect)}.
+     */
+    boolean endInput() {
+        mInputCanvas.restore();
+        final int width = mInput.getWidth();
+        final int height = mInput.getHeight();
+        final int[] pixels = new int[width * height];
+        mInput.getPixels(pixels, 0, width, 0, 0, width, height);
+        final Input input = new Input(pixels, width, mInputRadii);
+        if (input.isSameAs(mBlurredInput)) {
+            cancelPending();
+            return true;
+        }
+        if (mPending != null && input.isSameAs(mPending.input)) {
+            return false;
+        }
+        cancelPending();
+
+        final Job job = new Job(input);
+        mPending = job;
+        job.future = getBlurExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                // The input is kept as is, to compare the next ones with.
+                final int[] blurred = pixels.clone();
+                blur(blurred, width, height, input.radii);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPending != job) {
+                            // Cancelled once started, or released.
+                            return;
+                        }
+                        mPending = null;
+                        if (mOutput == null || mOutput.getWidth() != width
+                                || mOutput.getHeight() != height) {
+                            mOutput = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                        }
+                        mOutput.setPixels(blurred, 0, width, 0, 0, width, height);
+                        mBlurredInput = input;
+                        mListener.onBlurred();
+                    }
+                });
+            }
+        });
+        return false;
+    }
+
+    private void cancelPending() {
+        if (mPending != null) {
+            mPending.future.cancel(false);
+            mPending = null;
+        }
+    }
+
+    /**
+     * Draws the last blur done, or the last input if none is, scaled to the given bounds.
+     */
+    void draw(Canvas canvas, Rect bounds) {
+        final Bitmap bitmap = mOutput != null ? mOutput : mInput;
+        if (bitmap != null) {
+            canvas.drawBitmap(bitmap, null, bounds, mPaint);
+        }
+    }
+
+    /**
+     * Cancels the blur in progress and drops the bitmaps.
+     */
+    void release() {
+        cancelPending();
+        mInput = null;
+        mInputRadii = null;
+        mBlurredInput = null;
+        mOutput = null;
+    }
+
+    static ExecutorService getBlurExecutor() {
+        if (sBlurExecutor == null) {
+            sBlurExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sBlurExecutor;
+    }
+
+    /**
+     * Applies box blurs of the given radii in turn to the pixels of an image, in place.
+     */
+    static void blur(int[] pixels, int width, int height, int[] radii) {
+        final int size = width * height;
+        final int[] scratch = new int[size];
+        // Average premultiplied colors, so that transparent pixels don't darken their neighbours.
+        premultiply(pixels, size);
+        for (int radius : radii) {
+            // Each pass blurs the rows and transposes, the second one blurs the columns.
+            boxBlurRows(pixels, scratch, width, height, radius);
+            boxBlurRows(scratch, pixels, height, width, radius);
+        }
+        unpremultiply(pixels, size);
+    }
+
+    static void premultiply(int[] pixels, int size) {
+        for (int i = 0; i < size; i++) {
+            final int pixel = pixels[i];
+            final int a = pixel >>> 24;
+            if (a == 0xff) {
+                continue;
+            }
+            final int r = (((pixel >> 16) & 0xff) * a + 127) / 255;
+            final int g = (((pixel >> 8) & 0xff) * a + 127) / 255;
+            final int b = ((pixel & 0xff) * a + 127) / 255;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    static void unpremultiply(int[] pixels, int size) {
+        for (int i = 0; i < size; i++) {
+            final int pixel = pixels[i];
+            final int a = pixel >>> 24;
+            if (a == 0xff) {
+                continue;
+            }
+            if (a == 0) {
+                pixels[i] = 0;
+                continue;
+            }
+            final int half = a / 2;
+            final int r = Math.min((((pixel >> 16) & 0xff) * 255 + half) / a, 0xff);
+            final int g = Math.min((((pixel >> 8) & 0xff) * 255 + half) / a, 0xff);
+            final int b = Math.min(((pixel & 0xff) * 255 + half) / a, 0xff);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Blurs each row of {@code in} with a box of the given radius and writes the result transposed
+     * to {@code out}. Pixels past the edges repeat the edge pixels.
+     */
+    static void boxBlurRows(int[] in, int[] out, int width, int height, int radius) {
+        final int window = radius * 2 + 1;
+        final int last = width - 1;
+        for (int y = 0; y < height; y++) {
+            final int row = y * width;
+            int a = 0;
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            for (int i = -radius; i <= radius; i++) {
+                final int pixel = in[row + Math.min(Math.max(i, 0), last)];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xff;
+                g += (pixel >> 8) & 0xff;
+                b += pixel & 0xff;
+            }
+            for (int x = 0; x < width; x++) {
+                out[x * height + y] = ((a / window) << 24) | ((r / window) << 16)
+                        | ((g / window) << 8) | (b / window);
+                final int leaving = in[row + Math.max(x - radius, 0)];
+                final int entering = in[row + Math.min(x + radius + 1, last)];
+                a += (entering >>> 24) - (leaving >>> 24);
+                r += ((entering >> 16) & 0xff) - ((leaving >> 16) & 0xff);
+                g += ((entering >> 8) & 0xff) - ((leaving >> 8) & 0xff);
+                b += (entering & 0xff) - (leaving & 0xff);
+            }
+        }
+    }
+}
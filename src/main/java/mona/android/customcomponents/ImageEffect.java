@@ -0,0 +1,109 @@
+package mona.android.customcomponents;
+
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.util.StateSet;
+
+/**
+ * An effect applied by {@link ShapableImageView} to its image.
+ *
+ * <p>Color effects (tint, dim, grayscale) are concatenated into a single color filter applied when
+ * drawing, so turning them on or off costs no rasterization. Pixel effects (blur) run once on the
+ * composited image and are cached with it. Any effect can be limited to some view states with
+ * {@link #onlyInState(int...)}. Effects are immutable and can be shared between views.</p>
+ */
+public final class ImageEffect {
+
+    private final ColorMatrix mColorMatrix;
+    private final int mBlurRadius;
+    private final int[] mStateSpec;
+
+    private ImageEffect(ColorMatrix colorMatrix, int blurRadius, int[] stateSpec) {
+        mColorMatrix = colorMatrix;
+        mBlurRadius = blurRadius;
+        mStateSpec = stateSpec;
+    }
+
+    /**
+     * Blends the image toward a color, by the color's alpha.
+     */
+    public static ImageEffect tint(int color) {
+        final float amount = Color.alpha(color) / 255f;
+        final float keep = 1f - amount;
+        return new ImageEffect(new ColorMatrix(new float[] {
+                keep, 0, 0, 0, Color.red(color) * amount,
+                0, keep, 0, 0, Color.green(color) * amount,
+                0, 0, keep, 0, Color.blue(color) * amount,
+                0, 0, 0, 1, 0,
+        }), 0, null);
+    }
+
+    /**
+     * Darkens the image.
+     *
+     * @param amount from 0, no change, to 1, black
+     */
+    public static ImageEffect dim(float amount) {
+        final float keep = 1f - amount;
+        final ColorMatrix matrix = new ColorMatrix();
+        matrix.setScale(keep, keep, keep, 1f);
+        return new ImageEffect(matrix, 0, null);
+    }
+
+    /**
+     * Removes the colors of the image.
+     */
+    public static ImageEffect grayscale() {
+        final ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        return new ImageEffect(matrix, 0, null);
+    }
+
+    /**
+     * Removes the colors of the image while the view is disabled.
+     */
+    public static ImageEffect grayscaleWhenDisabled() {
+        return grayscale().onlyInState(-android.R.attr.state_enabled);
+    }
+
+    /**
+     * Blurs the image with a box blur, before it is masked. Meant for placeholders: the blur is
+     * computed on the CPU, on a downsampled copy of the image and in the background, each time the
+     * image is composited. The image is shown downsampled until the blur is done.
+     *
+     * @param radius the blur radius, in pixels
+     */
+    public static ImageEffect blur(int radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius must be positive: " + radius);
+        }
+        return new ImageEffect(null, radius, null);
+    }
+
+    /**
+     * Returns a copy of this effect only applied in the given states, as in a state list drawable:
+     * for instance {@code android.R.attr.state_pressed}, or {@code -android.R.attr.state_enabled}
+     * for a disabled view.
+     */
+    public ImageEffect onlyInState(int... stateSpec) {
+        return new ImageEffect(mColorMatrix, mBlurRadius, stateSpec.clone());
+    }
+
+    boolean isActive(int[] state) {
+        return mStateSpec == null || StateSet.stateSetMatches(mStateSpec, state);
+    }
+
+    /**
+     * @return The color matrix of a color effect, or null for a pixel effect.
+     */
+    ColorMatrix getColorMatrix() {
+        return mColorMatrix;
+    }
+
+    /**
+     * @return The blur radius of a pixel effect, or 0 for a color effect.
+     */
+    int getBlurRadius() {
+        return mBlurRadius;
+    }
+}
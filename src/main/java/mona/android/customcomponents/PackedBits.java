@@ -0,0 +1,151 @@
+package mona.android.customcomponents;
+
+import java.util.Arrays;
+
+/**
+ * A growable set of bits packed into longs. Unlike {@link java.util.BitSet} it exposes its words,
+ * which lets selection state be parcelled as-is on every API level.
+ */
+final class PackedBits {
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final long WORD_MASK = 0xffffffffffffffffL;
+
+    private long[] mWords;
+
+    PackedBits() {
+        mWords = new long[1];
+    }
+
+    PackedBits(long[] words) {
+        setWords(words);
+    }
+
+    /**
+     * Replaces all the bits with a copy of the given words.
+     */
+    void setWords(long[] words) {
+        mWords = words.length > 0 ? words.clone() : new long[1];
+    }
+
+    private static int wordIndex(int bitIndex) {
+        return bitIndex >> ADDRESS_BITS_PER_WORD;
+    }
+
+    private void ensureCapacity(int wordsRequired) {
+        if (mWords.length < wordsRequired) {
+            mWords = Arrays.copyOf(mWords, Math.max(mWords.length * 2, wordsRequired));
+        }
+    }
+
+    boolean get(int index) {
+        final int wordIndex = wordIndex(index);
+        return wordIndex < mWords.length && (mWords[wordIndex] & (1L << index)) != 0;
+    }
+
+    void set(int index, boolean value) {
+        final int wordIndex = wordIndex(index);
+        if (value) {
+            ensureCapacity(wordIndex + 1);
+            mWords[wordIndex] |= 1L << index;
+        } else if (wordIndex < mWords.length) {
+            mWords[wordIndex] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Sets or clears the bits from {@code fromIndex} (inclusive) to {@code toIndex} (exclusive).
+     */
+    void setRange(int fromIndex, int toIndex, boolean value) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        final int startWord = wordIndex(fromIndex);
+        final int endWord = wordIndex(toIndex - 1);
+        if (value) {
+            ensureCapacity(endWord + 1);
+        } else if (startWord >= mWords.length) {
+            return;
+        }
+        final int lastWord = Math.min(endWord, mWords.length - 1);
+        for (int i = startWord; i <= lastWord; i++) {
+            long mask = WORD_MASK;
+            if (i == startWord) {
+                mask &= WORD_MASK << fromIndex;
+            }
+            if (i == endWord) {
+                mask &= WORD_MASK >>> -toIndex;
+            }
+            if (value) {
+                mWords[i] |= mask;
+            } else {
+                mWords[i] &= ~mask;
+            }
+        }
+    }
+
+    /**
+     * Flips the bits from {@code fromIndex} (inclusive) to {@code toIndex} (exclusive).
+     */
+    void flipRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        final int startWord = wordIndex(fromIndex);
+        final int endWord = wordIndex(toIndex - 1);
+        ensureCapacity(endWord + 1);
+        for (int i = startWord; i <= endWord; i++) {
+            long mask = WORD_MASK;
+            if (i == startWord) {
+                mask &= WORD_MASK << fromIndex;
+            }
+            if (i == endWord) {
+                mask &= WORD_MASK >>> -toIndex;
+            }
+            mWords[i] ^= mask;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(mWords, 0L);
+    }
+
+    int cardinality() {
+        int count = 0;
+        for (long word : mWords) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return The index of the first set bit at or after {@code fromIndex}, or -1 if there is none.
+     */
+    int nextSetBit(int fromIndex) {
+        int wordIndex = wordIndex(fromIndex);
+        if (wordIndex >= mWords.length) {
+            return -1;
+        }
+        long word = mWords[wordIndex] & (WORD_MASK << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return (wordIndex << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+            }
+            if (++wordIndex == mWords.length) {
+                return -1;
+            }
+            word = mWords[wordIndex];
+        }
+    }
+
+    /**
+     * @return A copy of the words holding the bits, trimmed of trailing empty words.
+     */
+    long[] toWords() {
+        int length = mWords.length;
+        while (length > 0 && mWords[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.copyOf(mWords, length);
+    }
+}
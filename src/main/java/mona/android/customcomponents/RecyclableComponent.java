@@ -0,0 +1,48 @@
+package mona.android.customcomponents;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * A component that can be reset and bound to other content, for instance when the list row
+ * holding it is recycled.
+ *
+ * <p>{@link #resetForReuse()} drops everything tied to the previous content: running animations
+ * are ended at once, checked states are cleared without notifying listeners, click listeners added
+ * to the component and selection model bindings are removed, and cached content is invalidated.
+ * Allocations such as cache bitmaps and animators are kept, so that resetting and binding a view
+ * again allocates nothing. {@link Views#resetForReuse(View)} resets a whole row.</p>
+ */
+public interface RecyclableComponent {
+
+    /**
+     * Returns this component to the state of a freshly built one, keeping its allocations. Must
+     * be called from the main thread.
+     */
+    void resetForReuse();
+
+    /**
+     * Resets view hierarchies holding recyclable components.
+     */
+    final class Views {
+
+        private Views() {
+        }
+
+        /**
+         * Resets the given view and all its descendants implementing {@link RecyclableComponent},
+         * for instance a recycled list row before it is bound to another item.
+         */
+        public static void resetForReuse(View view) {
+            if (view instanceof RecyclableComponent) {
+                ((RecyclableComponent) view).resetForReuse();
+            }
+            if (view instanceof ViewGroup) {
+                final ViewGroup group = (ViewGroup) view;
+                for (int i = 0, count = group.getChildCount(); i < count; i++) {
+                    resetForReuse(group.getChildAt(i));
+                }
+            }
+        }
+    }
+}
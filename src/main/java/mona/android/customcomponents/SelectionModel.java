@@ -0,0 +1,270 @@
+package mona.android.customcomponents;
+
+import android.os.Parcelable;
+import android.util.SparseArray;
+import android.widget.Checkable;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Holds the checked state of a list of items independently of their views, packed one bit per
+ * item. Items are identified by an int key from 0 to the item count set with
+ * {@link #setItemCount(int)}: their adapter position, or their stable id when ids are dense from 0.
+ * Other ids must be mapped to positions, since the bits are sized for the largest key.
+ *
+ * <p>Checkable views showing an item are bound to its key with {@link #bind(Checkable, int)}; only
+ * bound views are updated when the selection changes, so bulk operations such as
+ * {@link #selectAll()} or {@link #invert()} cost a pass over the packed words plus one update per
+ * visible view. Bound views should be checked through the model rather than directly.</p>
+ */
+public class SelectionModel {
+
+    /**
+     * At most one item can be checked; toggling the checked item unchecks it.
+     */
+    public static final int MODE_SINGLE = 0;
+
+    /**
+     * Any number of items can be checked.
+     */
+    public static final int MODE_MULTIPLE = 1;
+
+    /**
+     * Radio group behaviour: once an item is checked, exactly one item stays checked.
+     */
+    public static final int MODE_RADIO = 2;
+
+    private final int mMode;
+    private final PackedBits mChecked = new PackedBits();
+    private int mItemCount;
+
+    private final SparseArray<Checkable> mBoundViews = new SparseArray<Checkable>();
+    // The key each bound view is bound to
+    private final IdentityHashMap<Checkable, Integer> mBoundKeys =
+            new IdentityHashMap<Checkable, Integer>();
+
+    private OnSelectionChangedListener mOnSelectionChangedListener;
+
+    /**
+     * Interface definition for a callback invoked when the selection changes.
+     */
+    public static interface OnSelectionChangedListener {
+        /**
+         * Called once per change, including bulk changes.
+         *
+         * @param model
+         *            The model whose selection changed.
+         */
+        void onSelectionChanged(SelectionModel model);
+    }
+
+    /**
+     * @param mode
+     *            One of {@link #MODE_SINGLE}, {@link #MODE_MULTIPLE} or {@link #MODE_RADIO}.
+     */
+    public SelectionModel(int mode) {
+        if (mode != MODE_SINGLE && mode != MODE_MULTIPLE && mode != MODE_RADIO) {
+            throw new IllegalArgumentException("Unknown selection mode " + mode);
+        }
+        mMode = mode;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        mOnSelectionChangedListener = listener;
+    }
+
+    /**
+     * Sets the number of items, which bounds the keys, {@link #selectAll()} and {@link #invert()}.
+     * Items past the new count are unchecked, and their bound views updated; the listener is
+     * notified once if any was checked.
+     */
+    public void setItemCount(int itemCount) {
+        if (itemCount < 0) {
+            throw new IllegalArgumentException("Negative item count " + itemCount);
+        }
+        boolean cleared = false;
+        for (int key = mChecked.nextSetBit(itemCount); key >= 0 && key < mItemCount;
+                key = mChecked.nextSetBit(key + 1)) {
+            mChecked.set(key, false);
+            updateBoundView(key);
+            cleared = true;
+        }
+        mItemCount = itemCount;
+        if (cleared) {
+            notifySelectionChanged();
+        }
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    public boolean isChecked(int key) {
+        checkKey(key);
+        return mChecked.get(key);
+    }
+
+    /**
+     * @return The number of checked items.
+     */
+    public int getCheckedCount() {
+        return mChecked.cardinality();
+    }
+
+    /**
+     * @return The first checked key at or after {@code fromKey}, or -1 if there is none.
+     */
+    public int nextCheckedKey(int fromKey) {
+        return mChecked.nextSetBit(Math.max(fromKey, 0));
+    }
+
+    public void setChecked(int key, boolean checked) {
+        checkKey(key);
+        if (mChecked.get(key) == checked) {
+            return;
+        }
+        if (!checked && mMode == MODE_RADIO) {
+            // A radio group can only change its checked item, never clear it.
+            return;
+        }
+        if (checked && mMode != MODE_MULTIPLE) {
+            final int previous = mChecked.nextSetBit(0);
+            if (previous >= 0) {
+                mChecked.set(previous, false);
+                updateBoundView(previous);
+            }
+        }
+        mChecked.set(key, checked);
+        updateBoundView(key);
+        notifySelectionChanged();
+    }
+
+    public void toggle(int key) {
+        checkKey(key);
+        setChecked(key, !mChecked.get(key));
+    }
+
+    /**
+     * Checks every item. Only supported in {@link #MODE_MULTIPLE}.
+     */
+    public void selectAll() {
+        setRangeChecked(0, mItemCount, true);
+    }
+
+    /**
+     * Unchecks every item.
+     */
+    public void clearAll() {
+        mChecked.clear();
+        updateBoundViews();
+        notifySelectionChanged();
+    }
+
+    /**
+     * Inverts the checked state of every item. Only supported in {@link #MODE_MULTIPLE}.
+     */
+    public void invert() {
+        ensureMultipleMode();
+        mChecked.flipRange(0, mItemCount);
+        updateBoundViews();
+        notifySelectionChanged();
+    }
+
+    /**
+     * Checks or unchecks the items from {@code fromKey} (inclusive) to {@code toKey} (exclusive).
+     * Only supported in {@link #MODE_MULTIPLE}.
+     */
+    public void setRangeChecked(int fromKey, int toKey, boolean checked) {
+        ensureMultipleMode();
+        if (fromKey < 0 || toKey > mItemCount || fromKey > toKey) {
+            throw new IllegalArgumentException("Range [" + fromKey + ", " + toKey
+                    + ") out of the " + mItemCount + " items");
+        }
+        mChecked.setRange(fromKey, toKey, checked);
+        updateBoundViews();
+        notifySelectionChanged();
+    }
+
+    private void checkKey(int key) {
+        if (key < 0 || key >= mItemCount) {
+            throw new IllegalArgumentException("Key " + key + " out of the " + mItemCount
+                    + " items");
+        }
+    }
+
+    private void ensureMultipleMode() {
+        if (mMode != MODE_MULTIPLE) {
+            throw new IllegalStateException("Bulk selection requires MODE_MULTIPLE");
+        }
+    }
+
+    /**
+     * @return The checked state of every item, packed into a single parcelable.
+     */
+    public Parcelable onSaveInstanceState() {
+        return new CheckedStateSaver.SavedState(mItemCount, mChecked.toWords());
+    }
+
+    /**
+     * Restores a state returned by {@link #onSaveInstanceState()} and updates the bound views.
+     */
+    public void onRestoreInstanceState(Parcelable state) {
+        CheckedStateSaver.SavedState ss = (CheckedStateSaver.SavedState) state;
+        mChecked.setWords(ss.words);
+        mItemCount = ss.count;
+        updateBoundViews();
+        notifySelectionChanged();
+    }
+
+    /**
+     * Binds a view to the item with the given key, typically when a list row is bound, and
+     * updates its checked state. A view is bound to at most one key at a time.
+     */
+    public void bind(Checkable view, int key) {
+        checkKey(key);
+        unbind(view);
+        final Checkable previous = mBoundViews.get(key);
+        if (previous != null) {
+            // A recycled view shows this item now.
+            mBoundKeys.remove(previous);
+        }
+        mBoundViews.put(key, view);
+        mBoundKeys.put(view, key);
+        view.setChecked(mChecked.get(key));
+    }
+
+    /**
+     * Stops updating the given view.
+     */
+    public void unbind(Checkable view) {
+        final Integer key = mBoundKeys.remove(view);
+        if (key != null) {
+            mBoundViews.remove(key);
+        }
+    }
+
+    private void updateBoundView(int key) {
+        final Checkable view = mBoundViews.get(key);
+        if (view != null) {
+            view.setChecked(mChecked.get(key));
+            ComponentMetrics.add(ComponentMetrics.CHECKED_PROPAGATIONS, 1);
+        }
+    }
+
+    private void updateBoundViews() {
+        for (int i = 0, count = mBoundViews.size(); i < count; i++) {
+            mBoundViews.valueAt(i).setChecked(mChecked.get(mBoundViews.keyAt(i)));
+        }
+        ComponentMetrics.add(ComponentMetrics.CHECKED_PROPAGATIONS, mBoundViews.size());
+    }
+
+    private void notifySelectionChanged() {
+        if (mOnSelectionChangedListener != null) {
+            mOnSelectionChangedListener.onSelectionChanged(this);
+        }
+    }
+}
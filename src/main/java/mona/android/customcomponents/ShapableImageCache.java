@@ -0,0 +1,289 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A two-level cache of the composited images of {@link ShapableImageView}s: the masked pixels,
+ * ready to draw under the border.
+ *
+ * <p>Composites are kept in a memory LRU and written as PNG files to a directory of the
+ * application's cache directory. A view missing its composite in memory builds it right away
+ * rather than waiting for the disk; the disk level is read ahead, as soon as a view knows its key
+ * and size, so that a cold screen can get composites with a single decode instead of masking each
+ * image again. Reads and writes run on separate background threads, so that lookups never queue
+ * behind PNG encoding. Views use the cache once given one with
+ * {@link ShapableImageView#setImageCache} and a key identifying their image with
+ * {@link ShapableImageView#setSourceKey}.</p>
+ */
+public final class ShapableImageCache {
+
+    private static final String DIRECTORY = "shapable-image-cache";
+
+    /**
+     * Interface definition for a callback invoked on the main thread when a disk lookup is done.
+     */
+    interface OnLoadedListener {
+        /**
+         * @param bitmap The composite, now also in memory, or null if it is not on disk.
+         */
+        void onCompositeLoaded(String key, Bitmap bitmap);
+    }
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    private final ExecutorService mReadExecutor;
+    // Also owns mDiskBytes and the trimming of the directory.
+    private final ExecutorService mWriteExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only accessed from the write thread.
+    private long mDiskBytes = -1;
+
+    /**
+     * Composites are keyed by resource ids, which only hold within one build: each version of the
+     * application gets its own directory, and the ones of other versions are deleted.
+     *
+     * @param maxMemoryBytes The size of the memory level, in bitmap bytes.
+     * @param maxDiskBytes The size of the disk level, in file bytes.
+     */
+    public ShapableImageCache(Context context, int maxMemoryBytes, long maxDiskBytes) {
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        final File root = new File(context.getCacheDir(), DIRECTORY);
+        mDirectory = new File(root, Integer.toString(getVersionCode(context)));
+        mMaxDiskBytes = maxDiskBytes;
+        mReadExecutor = Executors.newSingleThreadExecutor();
+        mWriteExecutor = Executors.newSingleThreadExecutor();
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                deleteOtherVersions(root);
+            }
+        });
+    }
+
+    private static int getVersionCode(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private void deleteOtherVersions(File root) {
+        final File[] versions = root.listFiles();
+        if (versions == null) {
+            return;
+        }
+        for (File version : versions) {
+            if (!version.equals(mDirectory)) {
+                final File[] files = version.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                version.delete();
+            }
+        }
+    }
+
+    /**
+     * @return The composite for the key if it is in memory, or null.
+     */
+    Bitmap get(String key) {
+        return mMemoryCache.get(key);
+    }
+
+    /**
+     * Reads the composite from disk into memory, and notifies the listener on the main thread.
+     */
+    void prefetch(final String key, final OnLoadedListener listener) {
+        mReadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Bitmap bitmap = mMemoryCache.get(key);
+                if (bitmap == null) {
+                    bitmap = readFromDisk(key);
+                    if (bitmap != null) {
+                        mMemoryCache.put(key, bitmap);
+                    }
+                }
+                final Bitmap loaded = bitmap;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCompositeLoaded(key, loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds a composite to the memory level, and writes it to disk in the background unless it is
+     * there already. The bitmap is shared from now on and must not be modified.
+     */
+    void put(final String key, final Bitmap bitmap) {
+        mMemoryCache.put(key, bitmap);
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                if (!fileFor(key).exists()) {
+                    writeToDisk(key, bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Empties the memory level, for instance when the system is low on memory.
+     */
+    public void evictAll() {
+        mMemoryCache.evictAll();
+    }
+
+    private Bitmap readFromDisk(String key) {
+        final File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        final Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            // Truncated or otherwise unreadable. The write thread keeps the size of the directory.
+            mWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deleteFile(file);
+                }
+            });
+            return null;
+        }
+        // Keep the least recently used files first in line for trimming.
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    private void writeToDisk(String key, Bitmap bitmap) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        final File file = fileFor(key);
+        final File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                return;
+            }
+            out.close();
+            out = null;
+            deleteFile(file);
+            if (temp.renameTo(file)) {
+                if (mDiskBytes >= 0) {
+                    mDiskBytes += file.length();
+                }
+                trimDisk();
+            }
+        } catch (IOException e) {
+            // The composite is simply rebuilt next time.
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            temp.delete();
+        }
+    }
+
+    private void trimDisk() {
+        if (mDiskBytes >= 0 && mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size > mMaxDiskBytes) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    final long l = lhs.lastModified();
+                    final long r = rhs.lastModified();
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            // Trim to three quarters so that the next writes don't trim again right away.
+            final long target = mMaxDiskBytes / 4 * 3;
+            for (int i = 0; i < files.length && size > target; i++) {
+                final long length = files[i].length();
+                if (files[i].delete()) {
+                    size -= length;
+                }
+            }
+        }
+        mDiskBytes = size;
+    }
+
+    private void deleteFile(File file) {
+        final long length = file.length();
+        if (file.delete() && mDiskBytes >= 0) {
+            mDiskBytes -= length;
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(mDirectory, hash(key) + ".png");
+    }
+
+    private static String hash(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
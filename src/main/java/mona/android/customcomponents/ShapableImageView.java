@@ -1,41 +1,132 @@
 package mona.android.customcomponents;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
+import android.graphics.ColorFilter;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.widget.ImageView;
 
 /**
  * Created by cheikhnamouna on 19/03/14.
  */
-public class ShapableImageView extends ImageView {
-    private Paint mBlackPaint;
+public class ShapableImageView extends ImageView implements RecyclableComponent {
     private Paint mMaskedPaint;
+    private Paint mMaskOutPaint;
 
-    private Rect mBounds;
-    private RectF mBoundsF;
+    private final Rect mBounds = new Rect();
+    private final RectF mBoundsF = new RectF();
 
     private Drawable mBorderDrawable;
     private Drawable mMaskDrawable;
-
-    private ColorMatrixColorFilter mDesaturateColorFilter;
-    private boolean mDesaturateOnPress = false;
-
+    private int mMaskResId;
+    private int mBorderResId;
+
+    // Regions of the shared atlas holding the mask and border at the current size, if any, and
+    // the generation of the atlas they belong to.
+    private DrawableAtlas.Region mMaskAtlasRegion;
+    private DrawableAtlas.Region mBorderAtlasRegion;
+    private int mAtlasGeneration;
+
+    private static final ImageEffect[] NO_EFFECTS = new ImageEffect[0];
+    private static final ImageEffect DESATURATE_ON_PRESS =
+            ImageEffect.grayscale().onlyInState(android.R.attr.state_pressed);
+    private static final int MAX_EFFECTS = Integer.SIZE - 1;
+
+    // Effects, and the ones active in the current drawable state as bit masks. Active color
+    // effects make a single filter, cached per combination.
+    private ImageEffect[] mEffects = NO_EFFECTS;
+    private int mActiveEffects = -1;
+    private int mActiveBlurs;
+    private final SparseArray<ColorFilter> mEffectFilters = new SparseArray<ColorFilter>();
+    private ColorFilter mEffectFilter;
+    private final Paint mEffectPaint = new Paint();
+
+    // Blurs of the image, created with the first one and released once no effect blurs.
+    private ImageBlur mBlur;
+
+    // The cache holds the drawable under the mask as last drawn, and is rebuilt once something
+    // changes its look. The border is drawn over it, and color effects applied, on every draw.
+    // It is allocated on the first rebuild.
     private boolean mCacheValid = false;
+    private Drawable mCachedDrawable;
+    private int mCachedBlurs;
     private Bitmap mCacheBitmap;
+    private final Canvas mCacheCanvas = new Canvas();
     private int mCachedWidth;
     private int mCachedHeight;
+    // Token of the bytes of mCacheBitmap counted in ComponentMetrics, if they were.
+    private int mCacheBitmapMetricsToken = ComponentMetrics.NOT_COUNTED;
+    // Whether mCacheBitmap was handed to the image cache, which makes it immutable.
+    private boolean mCacheBitmapShared;
+    // Whether the cache shows a placeholder until the blur in progress is done.
+    private boolean mCacheAwaitsBlur;
+
+    // Composites shared through an image cache, drawn instead of mCacheBitmap when set.
+    private ShapableImageCache mImageCache;
+    private String mSourceKey;
+    private Bitmap mSharedComposite;
+    private String mLoadingKey;
+
+    // Inputs of the composite that ImageView doesn't expose on all API levels. They may be set by
+    // the super constructor, so they have no initializer: the transparency is 255 minus the image
+    // alpha, to default to opaque.
+    private boolean mHasColorFilter;
+    private int mImageTransparency;
+    private final float[] mMatrixValues = new float[9];
+
+    // Tiled mode, drawing a large image from region decoded tiles instead of the cache.
+    private TiledImage mTiledImage;
+    private final Rect mTiledSource = new Rect();
+    private boolean mTiledSourceSet;
+    private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final TiledImage.OnTileLoadedListener mOnTileLoadedListener =
+            new TiledImage.OnTileLoadedListener() {
+                @Override
+                public void onTileLoaded() {
+                    invalidate();
+                }
+            };
+
+    private final ImageBlur.OnBlurredListener mOnBlurredListener =
+            new ImageBlur.OnBlurredListener() {
+                @Override
+                public void onBlurred() {
+                    mCacheValid = false;
+                    invalidate();
+                }
+            };
+
+    private final ShapableImageCache.OnLoadedListener mOnLoadedListener =
+            new ShapableImageCache.OnLoadedListener() {
+                @Override
+                public void onCompositeLoaded(String key, Bitmap bitmap) {
+                    if (key.equals(mLoadingKey)) {
+                        mLoadingKey = null;
+                        if (bitmap != null && !mCacheValid) {
+                            // Now in memory, in time for the next draw.
+                            invalidate();
+                        }
+                    }
+                }
+            };
 
     public ShapableImageView(Context context) {
         this(context, null);
@@ -48,48 +139,94 @@ public class ShapableImageView extends ImageView {
     public ShapableImageView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
 
-        // Attribute initialization
-        final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.ShapableImageView,
-                defStyle, 0);
+        // Attribute initialization, shared by all the views with the same style
+        final StyledAttributes attributes = sStyledAttributeCache.get(context, attrs, defStyle);
 
-        mMaskDrawable = a.getDrawable(R.styleable.ShapableImageView_maskDrawable);
+        mMaskDrawable = attributes.newMaskDrawable(getResources());
+        mMaskResId = attributes.maskResId;
         if (mMaskDrawable != null) {
             mMaskDrawable.setCallback(this);
         }
 
-        mBorderDrawable = a.getDrawable(R.styleable.ShapableImageView_borderDrawable);
+        mBorderDrawable = attributes.newBorderDrawable(getResources());
+        mBorderResId = attributes.borderResId;
         if (mBorderDrawable != null) {
             mBorderDrawable.setCallback(this);
         }
 
-        mDesaturateOnPress = a.getBoolean(R.styleable.ShapableImageView_desaturateOnPress,
-                mDesaturateOnPress);
-
-        a.recycle();
-
         // Other initialization
-        mBlackPaint = new Paint();
-        mBlackPaint.setColor(0xff000000);
-
         mMaskedPaint = new Paint();
         mMaskedPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
 
-        // Always want a cache allocated.
-        mCacheBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        mMaskOutPaint = new Paint();
+        mMaskOutPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+
+        if (attributes.desaturateOnPress) {
+            mEffects = new ImageEffect[] { DESATURATE_ON_PRESS };
+        }
+        updateActiveEffects();
+    }
+
+    /**
+     * The resolved styled attributes of a ShapableImageView.
+     */
+    private static final class StyledAttributes {
+        final Drawable.ConstantState maskState;
+        final Drawable.ConstantState borderState;
+        final int maskResId;
+        final int borderResId;
+        final boolean desaturateOnPress;
+        // Only set when a drawable has no constant state, making these attributes unshareable.
+        final Drawable maskDrawable;
+        final Drawable borderDrawable;
+
+        StyledAttributes(Drawable mask, int maskResId, Drawable border, int borderResId,
+                boolean desaturateOnPress) {
+            maskState = mask != null ? mask.getConstantState() : null;
+            borderState = border != null ? border.getConstantState() : null;
+            maskDrawable = maskState == null ? mask : null;
+            borderDrawable = borderState == null ? border : null;
+            this.maskResId = maskResId;
+            this.borderResId = borderResId;
+            this.desaturateOnPress = desaturateOnPress;
+        }
+
+        Drawable newMaskDrawable(Resources res) {
+            return maskState != null ? maskState.newDrawable(res).mutate() : maskDrawable;
+        }
 
-        if (mDesaturateOnPress) {
-            // Create a desaturate color filter for pressed state.
-            ColorMatrix cm = new ColorMatrix();
-            cm.setSaturation(0);
-            mDesaturateColorFilter = new ColorMatrixColorFilter(cm);
+        Drawable newBorderDrawable(Resources res) {
+            return borderState != null ? borderState.newDrawable(res).mutate() : borderDrawable;
         }
     }
 
+    private static final StyledAttributeCache<StyledAttributes> sStyledAttributeCache =
+            new StyledAttributeCache<StyledAttributes>(R.styleable.ShapableImageView,
+                    new StyledAttributeCache.Resolver<StyledAttributes>() {
+                        @Override
+                        public StyledAttributes resolve(Resources res, TypedArray a) {
+                            return new StyledAttributes(
+                                    a.getDrawable(R.styleable.ShapableImageView_maskDrawable),
+                                    a.getResourceId(R.styleable.ShapableImageView_maskDrawable, 0),
+                                    a.getDrawable(R.styleable.ShapableImageView_borderDrawable),
+                                    a.getResourceId(
+                                            R.styleable.ShapableImageView_borderDrawable, 0),
+                                    a.getBoolean(
+                                            R.styleable.ShapableImageView_desaturateOnPress,
+                                            false));
+                        }
+
+                        @Override
+                        public boolean isShareable(StyledAttributes values) {
+                            return values.maskDrawable == null && values.borderDrawable == null;
+                        }
+                    });
+
     @Override
     protected boolean setFrame(int l, int t, int r, int b) {
         final boolean changed = super.setFrame(l, t, r, b);
-        mBounds = new Rect(0, 0, r - l, b - t);
-        mBoundsF = new RectF(mBounds);
+        mBounds.set(0, 0, r - l, b - t);
+        mBoundsF.set(mBounds);
 
         if (mBorderDrawable != null) {
             mBorderDrawable.setBounds(mBounds);
@@ -100,6 +237,11 @@ public class ShapableImageView extends ImageView {
 
         if (changed) {
             mCacheValid = false;
+            updateAtlasRegions(r - l, b - t);
+            prefetchComposite();
+        }
+        if (mTiledImage != null) {
+            mTiledImage.setViewportSize(r - l, b - t);
         }
 
         return changed;
@@ -107,10 +249,6 @@ public class ShapableImageView extends ImageView {
 
     @Override
     protected void onDraw(Canvas canvas) {
-        if (mBounds == null) {
-            return;
-        }
-
         int width = mBounds.width();
         int height = mBounds.height();
 
@@ -118,60 +256,541 @@ public class ShapableImageView extends ImageView {
             return;
         }
 
-        if (!mCacheValid || width != mCachedWidth || height != mCachedHeight) {
-            // Need to redraw the cache
-            if (width == mCachedWidth && height == mCachedHeight) {
-                // Have a correct-sized bitmap cache already allocated. Just erase it.
-                mCacheBitmap.eraseColor(0);
+        final int trace = ComponentTrace.beginSection("ShapableImageView#onDraw");
+        try {
+            drawImage(canvas, width, height);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private void drawImage(Canvas canvas, int width, int height) {
+        if (mTiledImage != null) {
+            drawTiles(canvas, width, height);
+            drawBorder(canvas);
+            return;
+        }
+
+        if (DrawableAtlas.isEnabled()
+                && mAtlasGeneration != DrawableAtlas.getInstance().getGeneration(getResources())) {
+            // The resources changed since the regions were resolved.
+            mCacheValid = false;
+            updateAtlasRegions(width, height);
+        }
+        final Drawable drawable = getDrawable();
+        if (!mCacheValid || drawable != mCachedDrawable || mActiveBlurs != mCachedBlurs) {
+            mSharedComposite = null;
+            mCacheAwaitsBlur = false;
+            final String key = getCompositeKey(width, height);
+            if (key != null) {
+                // The disk level is only read ahead of time, see prefetchComposite(): a miss is
+                // composited right away rather than shown late.
+                mSharedComposite = mImageCache.get(key);
+            }
+
+            if (mSharedComposite == null) {
+                // Need to redraw the cache
+                ComponentMetrics.add(ComponentMetrics.SHAPABLE_CACHE_REBUILDS, 1);
+                final int rebuildTrace =
+                        ComponentTrace.beginSection("ShapableImageView#rebuildCache");
+                try {
+                    mCacheAwaitsBlur = !rebuildCache(width, height);
+                } finally {
+                    ComponentTrace.endSection(rebuildTrace);
+                }
+                if (key != null && !mCacheAwaitsBlur) {
+                    // Hand the bitmap over rather than copying it; the next rebuild allocates.
+                    ComponentMetrics.releaseAllocation(ComponentMetrics.SHAPABLE_BITMAP_BYTES,
+                            mCacheBitmap.getByteCount(), mCacheBitmapMetricsToken);
+                    mCacheBitmapMetricsToken = ComponentMetrics.NOT_COUNTED;
+                    mCacheBitmapShared = true;
+                    mSharedComposite = mCacheBitmap;
+                    mImageCache.put(key, mSharedComposite);
+                }
+            } else {
+                ComponentMetrics.add(ComponentMetrics.SHAPABLE_CACHE_HITS, 1);
+            }
+            mCachedDrawable = drawable;
+            mCachedBlurs = mActiveBlurs;
+            mCacheValid = true;
+        } else {
+            ComponentMetrics.add(ComponentMetrics.SHAPABLE_CACHE_HITS, 1);
+        }
+
+        // Draw from cache
+        canvas.drawBitmap(mSharedComposite != null ? mSharedComposite : mCacheBitmap,
+                mBounds.left, mBounds.top, mEffectFilter != null ? mEffectPaint : null);
+        drawBorder(canvas);
+    }
+
+    private void updateAtlasRegions(int width, int height) {
+        mMaskAtlasRegion = null;
+        mBorderAtlasRegion = null;
+        if (DrawableAtlas.isEnabled()) {
+            final Resources res = getResources();
+            final DrawableAtlas atlas = DrawableAtlas.getInstance();
+            if (mMaskDrawable != null) {
+                mMaskAtlasRegion = atlas.getRegion(res, mMaskDrawable, mMaskResId, width, height);
+            }
+            if (mBorderDrawable != null) {
+                mBorderAtlasRegion = atlas.getRegion(res, mBorderDrawable, mBorderResId, width,
+                        height);
+            }
+            mAtlasGeneration = atlas.getGeneration(res);
+        }
+    }
+
+    private void drawMask(Canvas canvas) {
+        if (mMaskAtlasRegion != null) {
+            canvas.drawBitmap(mMaskAtlasRegion.page, mMaskAtlasRegion.bounds, mBounds, null);
+        } else {
+            mMaskDrawable.draw(canvas);
+        }
+    }
+
+    private void drawBorder(Canvas canvas) {
+        if (mBorderAtlasRegion != null) {
+            canvas.drawBitmap(mBorderAtlasRegion.page, mBorderAtlasRegion.bounds, mBounds, null);
+        } else if (mBorderDrawable != null) {
+            mBorderDrawable.draw(canvas);
+        }
+    }
+
+    /**
+     * Shows a large image in tiles instead of the image drawable: only the tiles of the visible
+     * part are decoded, in the background, then masked when drawn. The view owns the decoder and
+     * recycles it once replaced. Color effects apply, blurs and the image cache don't.
+     *
+     * @param decoder the decoder of the image, or null to leave the tiled mode
+     */
+    public void setTiledImage(BitmapRegionDecoder decoder) {
+        if (mTiledImage != null) {
+            mTiledImage.release();
+            mTiledImage = null;
+        }
+        if (decoder != null) {
+            mTiledImage = new TiledImage(decoder, mOnTileLoadedListener);
+            if (mBounds.width() > 0 && mBounds.height() > 0) {
+                mTiledImage.setViewportSize(mBounds.width(), mBounds.height());
+            }
+        }
+        mTiledSourceSet = false;
+        invalidate();
+    }
+
+    /**
+     * Sets the part of the tiled image shown, in image pixels, for instance to zoom or pan.
+     *
+     * @param source the part to show, or null to center crop the whole image
+     */
+    public void setTiledSourceRect(Rect source) {
+        mTiledSourceSet = source != null;
+        if (source != null) {
+            mTiledSource.set(source);
+        }
+        invalidate();
+    }
+
+    private void drawTiles(Canvas canvas, int width, int height) {
+        final Rect source = getTiledSource(width, height);
+        if (source.isEmpty()) {
+            return;
+        }
+        mTilePaint.setColorFilter(mEffectFilter);
+        if (mMaskDrawable != null) {
+            int sc = canvas.saveLayer(mBoundsF, null,
+                    Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.FULL_COLOR_LAYER_SAVE_FLAG);
+            drawMask(canvas);
+            canvas.saveLayer(mBoundsF, mMaskedPaint,
+                    Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.FULL_COLOR_LAYER_SAVE_FLAG);
+            mTiledImage.draw(canvas, source, width, height, mTilePaint);
+            canvas.restoreToCount(sc);
+        } else {
+            mTiledImage.draw(canvas, source, width, height, mTilePaint);
+        }
+    }
+
+    private Rect getTiledSource(int width, int height) {
+        if (!mTiledSourceSet) {
+            // Center crop, as the CENTER_CROP scale type does.
+            final int imageWidth = mTiledImage.getWidth();
+            final int imageHeight = mTiledImage.getHeight();
+            if ((long) imageWidth * height > (long) width * imageHeight) {
+                final int croppedWidth = (int) ((long) imageHeight * width / height);
+                final int left = (imageWidth - croppedWidth) / 2;
+                mTiledSource.set(left, 0, left + croppedWidth, imageHeight);
             } else {
-                // Allocate a new bitmap with the correct dimensions.
+                final int croppedHeight = (int) ((long) imageWidth * height / width);
+                final int top = (imageHeight - croppedHeight) / 2;
+                mTiledSource.set(0, top, imageWidth, top + croppedHeight);
+            }
+        }
+        return mTiledSource;
+    }
+
+    /**
+     * Sets the effects applied to the image, in order. They replace the effects set before,
+     * including the one of the desaturateOnPress attribute.
+     */
+    public void setImageEffects(ImageEffect... effects) {
+        if (effects.length > MAX_EFFECTS) {
+            throw new IllegalArgumentException("At most " + MAX_EFFECTS + " effects are supported");
+        }
+        mEffects = effects.clone();
+        if (mBlur != null && !hasBlur(mEffects)) {
+            mBlur.release();
+            mBlur = null;
+        }
+        mEffectFilters.clear();
+        mActiveEffects = -1;
+        mCacheValid = false;
+        updateActiveEffects();
+        invalidate();
+    }
+
+    private static boolean hasBlur(ImageEffect[] effects) {
+        for (ImageEffect effect : effects) {
+            if (effect.getBlurRadius() != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the effects active in the current drawable state. Switching color effects only
+     * changes the filter the cache is drawn with, switching blurs requires a new cache.
+     */
+    private void updateActiveEffects() {
+        final ImageEffect[] effects = mEffects;
+        if (effects == null) {
+            // Called by the super constructor.
+            return;
+        }
+
+        final int[] state = getDrawableState();
+        int active = 0;
+        for (int i = 0; i < effects.length; i++) {
+            if (effects[i].isActive(state)) {
+                active |= 1 << i;
+            }
+        }
+        if (active == mActiveEffects) {
+            return;
+        }
+        mActiveEffects = active;
+
+        int colors = 0;
+        int blurs = 0;
+        for (int i = 0; i < effects.length; i++) {
+            if ((active & (1 << i)) != 0) {
+                if (effects[i].getColorMatrix() != null) {
+                    colors |= 1 << i;
+                } else {
+                    blurs |= 1 << i;
+                }
+            }
+        }
+        mActiveBlurs = blurs;
+
+        ColorFilter filter = null;
+        if (colors != 0) {
+            filter = mEffectFilters.get(colors);
+            if (filter == null) {
+                final ColorMatrix matrix = new ColorMatrix();
+                for (int i = 0; i < effects.length; i++) {
+                    if ((colors & (1 << i)) != 0) {
+                        matrix.postConcat(effects[i].getColorMatrix());
+                    }
+                }
+                filter = new ColorMatrixColorFilter(matrix);
+                mEffectFilters.put(colors, filter);
+            }
+        }
+        if (filter != mEffectFilter) {
+            mEffectFilter = filter;
+            mEffectPaint.setColorFilter(filter);
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the cache sharing composited images between views and across launches. Only used once
+     * a source key is set.
+     *
+     * @param cache the cache to use, or null to composite in this view only
+     */
+    public void setImageCache(ShapableImageCache cache) {
+        mImageCache = cache;
+        invalidateComposite();
+        prefetchComposite();
+    }
+
+    /**
+     * Sets the key identifying the image shown, such as its URL, used with the mask, size,
+     * padding, scale type or image matrix, image alpha and level, and active blurs to look its
+     * composite up in the image cache. The key must change whenever the image does. Views with a
+     * color filter or a stateful image are composited on their own.
+     *
+     * @param key the key of the current image, or null to composite in this view only
+     */
+    public void setSourceKey(String key) {
+        if (key == null ? mSourceKey != null : !key.equals(mSourceKey)) {
+            mSourceKey = key;
+            invalidateComposite();
+            prefetchComposite();
+        }
+    }
+
+    private void invalidateComposite() {
+        mCacheValid = false;
+        mSharedComposite = null;
+        mLoadingKey = null;
+        invalidate();
+    }
+
+    /**
+     * Starts reading the composite from the disk level of the image cache if it isn't in memory,
+     * so that it is there by the time the view draws, once laid out and given a source key.
+     */
+    private void prefetchComposite() {
+        final int width = mBounds.width();
+        final int height = mBounds.height();
+        if (mImageCache == null || mCacheValid || width == 0 || height == 0) {
+            return;
+        }
+        final String key = getCompositeKey(width, height);
+        if (key != null && !key.equals(mLoadingKey) && mImageCache.get(key) == null) {
+            mLoadingKey = key;
+            mImageCache.prefetch(key, mOnLoadedListener);
+        }
+    }
+
+    /**
+     * @return The key of the composite in the image cache, or null if it can't be shared: stateful
+     * drawables, masks that aren't resources and color filters have no stable identity.
+     */
+    private String getCompositeKey(int width, int height) {
+        final Drawable drawable = getDrawable();
+        if (mImageCache == null || mSourceKey == null || mHasColorFilter
+                || (drawable != null && drawable.isStateful())
+                || (mMaskDrawable != null && (mMaskResId == 0 || mMaskDrawable.isStateful()))) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder(mSourceKey)
+                .append('|').append(mMaskResId)
+                .append('|').append(getScaleType().ordinal())
+                .append('|').append(width).append('x').append(height)
+                .append('|').append(getPaddingLeft()).append(',').append(getPaddingTop())
+                .append(',').append(getPaddingRight()).append(',').append(getPaddingBottom())
+                .append("|alpha").append(255 - mImageTransparency);
+        if (drawable != null) {
+            key.append("|level").append(drawable.getLevel());
+        }
+        if (getScaleType() == ScaleType.MATRIX) {
+            getImageMatrix().getValues(mMatrixValues);
+            key.append("|matrix");
+            for (float value : mMatrixValues) {
+                key.append(',').append(value);
+            }
+        }
+        for (int i = 0; i < mEffects.length; i++) {
+            if ((mActiveBlurs & (1 << i)) != 0) {
+                key.append("|blur").append(mEffects[i].getBlurRadius());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Draws the composite into the cache bitmap.
+     *
+     * @return Whether the composite is final, rather than a placeholder drawn until the blur in
+     * progress is done.
+     */
+    private boolean rebuildCache(int width, int height) {
+        if (mCacheBitmap != null && width == mCachedWidth && height == mCachedHeight
+                && !mCacheBitmapShared) {
+            // Have a correct-sized bitmap cache already allocated. Just erase it.
+            mCacheBitmap.eraseColor(0);
+        } else {
+            // Allocate a new bitmap with the correct dimensions, leaving a shared one to the
+            // image cache.
+            if (mCacheBitmap != null && !mCacheBitmapShared) {
+                ComponentMetrics.releaseAllocation(ComponentMetrics.SHAPABLE_BITMAP_BYTES,
+                        mCacheBitmap.getByteCount(), mCacheBitmapMetricsToken);
                 mCacheBitmap.recycle();
-                //noinspection AndroidLintDrawAllocation
-                mCacheBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                mCachedWidth = width;
-                mCachedHeight = height;
             }
+            mCacheBitmapShared = false;
+            //noinspection AndroidLintDrawAllocation
+            mCacheBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCacheBitmapMetricsToken = ComponentMetrics.addAllocation(
+                    ComponentMetrics.SHAPABLE_BITMAP_BYTES, mCacheBitmap.getByteCount());
+            mCachedWidth = width;
+            mCachedHeight = height;
+            mCacheCanvas.setBitmap(mCacheBitmap);
+        }
 
-            Canvas cacheCanvas = new Canvas(mCacheBitmap);
+        final Canvas cacheCanvas = mCacheCanvas;
+        boolean complete = true;
+        if (mActiveBlurs != 0) {
+            // Blur the image alone, downsampled and in the background, then mask it.
+            if (mBlur == null) {
+                mBlur = new ImageBlur(mOnBlurredListener);
+            }
+            super.onDraw(mBlur.beginInput(width, height, getActiveBlurRadii()));
+            complete = mBlur.endInput();
+            mBlur.draw(cacheCanvas, mBounds);
             if (mMaskDrawable != null) {
-                int sc = cacheCanvas.save();
-                mMaskDrawable.draw(cacheCanvas);
-                mMaskedPaint.setColorFilter((mDesaturateOnPress && isPressed())
-                        ? mDesaturateColorFilter : null);
-                cacheCanvas.saveLayer(mBoundsF, mMaskedPaint,
+                int sc = cacheCanvas.saveLayer(mBoundsF, mMaskOutPaint,
                         Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.FULL_COLOR_LAYER_SAVE_FLAG);
-                super.onDraw(cacheCanvas);
+                drawMask(cacheCanvas);
                 cacheCanvas.restoreToCount(sc);
-            } else if (mDesaturateOnPress && isPressed()) {
-                int sc = cacheCanvas.save();
-                cacheCanvas.drawRect(0, 0, mCachedWidth, mCachedHeight, mBlackPaint);
-                mMaskedPaint.setColorFilter(mDesaturateColorFilter);
-                cacheCanvas.saveLayer(mBoundsF, mMaskedPaint,
-                        Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.FULL_COLOR_LAYER_SAVE_FLAG);
-                super.onDraw(cacheCanvas);
-                cacheCanvas.restoreToCount(sc);
-            } else {
-                super.onDraw(cacheCanvas);
             }
+        } else if (mMaskDrawable != null) {
+            int sc = cacheCanvas.save();
+            drawMask(cacheCanvas);
+            cacheCanvas.saveLayer(mBoundsF, mMaskedPaint,
+                    Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.FULL_COLOR_LAYER_SAVE_FLAG);
+            super.onDraw(cacheCanvas);
+            cacheCanvas.restoreToCount(sc);
+        } else {
+            super.onDraw(cacheCanvas);
+        }
+        return complete;
+    }
 
-            if (mBorderDrawable != null) {
-                mBorderDrawable.draw(cacheCanvas);
+    private int[] getActiveBlurRadii() {
+        final int[] radii = new int[Integer.bitCount(mActiveBlurs)];
+        int count = 0;
+        for (int i = 0; i < mEffects.length; i++) {
+            if ((mActiveBlurs & (1 << i)) != 0) {
+                radii[count++] = mEffects[i].getBlurRadius();
             }
         }
+        return radii;
+    }
 
-        // Draw from cache
-        canvas.drawBitmap(mCacheBitmap, mBounds.left, mBounds.top, null);
+    /**
+     * Drops the cached image, the source key and the tiled image so that the next draw shows the
+     * current content, and ends drawable transitions. The cache bitmap is kept and redrawn in
+     * place.
+     */
+    @Override
+    public void resetForReuse() {
+        mCacheValid = false;
+        mCachedDrawable = null;
+        mSourceKey = null;
+        mSharedComposite = null;
+        mLoadingKey = null;
+        setTiledImage(null);
+        jumpDrawablesToCurrentState();
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mBlur != null) {
+            // A placeholder would stay until the next change: blur again once attached.
+            mBlur.release();
+            if (mCacheAwaitsBlur) {
+                mCacheValid = false;
+            }
+        }
+    }
+
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        mCacheValid = false;
+        super.setImageMatrix(matrix);
+    }
+
+    @Override
+    public void setScaleType(ScaleType scaleType) {
+        mCacheValid = false;
+        super.setScaleType(scaleType);
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mCacheValid = false;
+        mHasColorFilter = cf != null;
+        super.setColorFilter(cf);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setAlpha(int alpha) {
+        mCacheValid = false;
+        mImageTransparency = 255 - (alpha & 0xff);
+        super.setAlpha(alpha);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void setImageAlpha(int alpha) {
+        mCacheValid = false;
+        mImageTransparency = 255 - (alpha & 0xff);
+        super.setImageAlpha(alpha);
+    }
+
+    @Override
+    public void setImageLevel(int level) {
+        mCacheValid = false;
+        super.setImageLevel(level);
+    }
+
+    @Override
+    public void setPadding(int left, int top, int right, int bottom) {
+        if (left != getPaddingLeft() || top != getPaddingTop() || right != getPaddingRight()
+                || bottom != getPaddingBottom()) {
+            // The image is placed within the padding when the cache is drawn.
+            mCacheValid = false;
+        }
+        super.setPadding(left, top, right, bottom);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    @Override
+    public void setPaddingRelative(int start, int top, int end, int bottom) {
+        if (start != getPaddingStart() || top != getPaddingTop() || end != getPaddingEnd()
+                || bottom != getPaddingBottom()) {
+            mCacheValid = false;
+        }
+        super.setPaddingRelative(start, top, end, bottom);
+    }
+
+    @Override
+    public void jumpDrawablesToCurrentState() {
+        super.jumpDrawablesToCurrentState();
+        if (mBorderDrawable != null) {
+            mBorderDrawable.jumpToCurrentState();
+        }
+        if (mMaskDrawable != null) {
+            mMaskDrawable.jumpToCurrentState();
+        }
     }
 
     @Override
     protected void drawableStateChanged() {
         super.drawableStateChanged();
-        if (mBorderDrawable != null && mBorderDrawable.isStateful()) {
-            mBorderDrawable.setState(getDrawableState());
+        // The border and color effects are drawn live, only a new mask or image state requires a
+        // new cache.
+        final Drawable drawable = getDrawable();
+        if (drawable != null && drawable.isStateful()) {
+            mCacheValid = false;
+        }
+        if (mBorderDrawable != null && mBorderDrawable.isStateful()
+                && mBorderDrawable.setState(getDrawableState())) {
+            invalidate();
         }
-        if (mMaskDrawable != null && mMaskDrawable.isStateful()) {
-            mMaskDrawable.setState(getDrawableState());
+        if (mMaskDrawable != null && mMaskDrawable.isStateful()
+                && mMaskDrawable.setState(getDrawableState())) {
+            mCacheValid = false;
+            invalidate();
         }
+        updateActiveEffects();
         if (isDuplicateParentStateEnabled()) {
             ViewCompat.postInvalidateOnAnimation(this);
         }
@@ -179,9 +798,15 @@ public class ShapableImageView extends ImageView {
 
     @Override
     public void invalidateDrawable(Drawable who) {
-        if (who == mBorderDrawable || who == mMaskDrawable) {
+        if (who == mBorderDrawable) {
+            invalidate();
+        } else if (who == mMaskDrawable) {
+            mCacheValid = false;
             invalidate();
         } else {
+            if (who == getDrawable()) {
+                mCacheValid = false;
+            }
             super.invalidateDrawable(who);
         }
     }
@@ -0,0 +1,57 @@
+package mona.android.customcomponents;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * A process wide cache of the constant states of application drawables, keyed by resource id,
+ * for the current configuration.
+ *
+ * <p>Every call returns a new mutated drawable, so callers can change its state, bounds or alpha
+ * freely, while the decoded bitmaps behind it are shared with every other instance. At most
+ * {@link #MAX_STATES} states are kept, least recently used first out, and they are dropped when
+ * the configuration changes. Framework drawables aren't cached: the resources share the ones
+ * they preload already.</p>
+ */
+final class SharedDrawableCache {
+
+    static final int MAX_STATES = 32;
+
+    // The package id of the framework resources, in the top byte of their ids.
+    private static final int FRAMEWORK_PACKAGE_ID = 0x01;
+
+    private static final LruCache<Integer, Drawable.ConstantState> sStates =
+            new LruCache<Integer, Drawable.ConstantState>(MAX_STATES);
+    private static Configuration sConfiguration;
+
+    private SharedDrawableCache() {
+    }
+
+    static synchronized Drawable getDrawable(Resources res, int resId) {
+        if (resId >>> 24 == FRAMEWORK_PACKAGE_ID) {
+            return res.getDrawable(resId).mutate();
+        }
+
+        final Configuration config = res.getConfiguration();
+        if (sConfiguration == null) {
+            // The resources update their configuration in place, keep a copy.
+            sConfiguration = new Configuration(config);
+        } else if (sConfiguration.diff(config) != 0) {
+            sStates.evictAll();
+            sConfiguration.setTo(config);
+        }
+
+        Drawable.ConstantState state = sStates.get(resId);
+        if (state == null) {
+            final Drawable drawable = res.getDrawable(resId);
+            state = drawable.getConstantState();
+            if (state == null) {
+                return drawable;
+            }
+            sStates.put(resId, state);
+        }
+        return state.newDrawable(res).mutate();
+    }
+}
@@ -5,17 +5,28 @@ import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Canvas;
 import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.WindowManager;
+
+import java.util.Arrays;
 
 /**
  * A layout that supports the Show/Hide pattern for portrait tablet layouts.
+ *
+ * <p>When given an id, the layout saves whether the master pane is visible and restores it without
+ * animating, so that a recreated screen comes up in its final state in its first layout pass.</p>
  */
 public class ShowHideMasterLayout extends ViewGroup implements Animator.AnimatorListener {
 
@@ -34,20 +45,176 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
     private View mDetailView;
 
     private OnMasterVisibilityChangedListener mOnMasterVisibilityChangedListener;
+    private OnTransitionMetricsListener mOnTransitionMetricsListener;
+    // The recorder of the running transition, if recorded.
+    private TransitionFrameRecorder mFrameRecorder;
+    private float mRefreshRate;
 
     private GestureDetector mGestureDetector;
     private boolean mFlingToExposeMaster;
 
     private boolean mIsAnimating;
+    private AnimatorSet mAnimatorSet;
+    private boolean mTransitionCanceled;
     private Runnable mShowMasterCompleteRunnable;
 
     // The last measured master width, including its margins.
     private int mTranslateAmount;
 
+    private HardwareLayerPolicy mHardwareLayerPolicy;
+    // Whether the policy was set by the application, and is then given the frame timings.
+    private boolean mRecordForPolicy;
+    private boolean mMasterLayered;
+    private boolean mDetailLayered;
+
     public interface OnMasterVisibilityChangedListener {
         public void onMasterVisibilityChanged(boolean visible);
     }
 
+    /**
+     * Notified with frame timings at the end of each animated show/hide transition. Only called
+     * on Jelly Bean and up, where {@link Choreographer} frame callbacks are available.
+     */
+    public interface OnTransitionMetricsListener {
+        public void onTransitionMetrics(TransitionMetrics metrics);
+    }
+
+    /**
+     * Frame timings recorded during one animated show/hide transition.
+     */
+    public static class TransitionMetrics {
+        /** Whether the transition showed (true) or hid (false) the master pane. */
+        public final boolean masterShown;
+        /** Number of frames drawn during the transition. */
+        public final int frameCount;
+        /**
+         * Duration of each frame after the first, from the start of the frame before it, in
+         * nanoseconds: {@code frameCount - 1} values.
+         */
+        public final long[] frameDurationsNanos;
+        /** Number of frames that took more than one and a half refresh intervals. */
+        public final int jankyFrames;
+        /** Time between the first and the last frame of the transition, in nanoseconds. */
+        public final long totalDurationNanos;
+
+        TransitionMetrics(boolean masterShown, int frameCount, long[] frameDurationsNanos,
+                int jankyFrames, long totalDurationNanos) {
+            this.masterShown = masterShown;
+            this.frameCount = frameCount;
+            this.frameDurationsNanos = frameDurationsNanos;
+            this.jankyFrames = jankyFrames;
+            this.totalDurationNanos = totalDurationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "TransitionMetrics{masterShown=" + masterShown
+                    + " frameCount=" + frameCount
+                    + " jankyFrames=" + jankyFrames
+                    + " totalDurationNanos=" + totalDurationNanos + "}";
+        }
+    }
+
+    /**
+     * Decides whether a pane should be promoted to a hardware layer for the duration of a
+     * show/hide transition.
+     */
+    public interface HardwareLayerPolicy {
+        /**
+         * @param pane The master or detail view about to be animated.
+         * @return True to animate the pane on a {@link View#LAYER_TYPE_HARDWARE} layer.
+         */
+        public boolean shouldUseHardwareLayer(View pane);
+
+        /**
+         * Called with the frame timings of each animated transition that ran to its end. Only
+         * called on Jelly Bean and up, where {@link Choreographer} frame callbacks are available.
+         *
+         * @param layered Whether at least one of the panes was animated on a layer.
+         */
+        public void onTransitionFinished(boolean layered, TransitionMetrics metrics);
+    }
+
+    /**
+     * A {@link HardwareLayerPolicy} adapting to the device. Panes larger than
+     * {@code maxLayerPixels} are animated without a layer, since uploading them costs more than it
+     * saves. Other panes use a layer, unless transitions on layers turn out to drop more frames
+     * than transitions without: frame times include the whole rendering of the frame, upload and
+     * composition included, so they tell whether layers pay off on the device. While the mode in
+     * use drops frames, the other one is tried again every {@link #RESAMPLE_INTERVAL} transitions
+     * and its ratio replaced, since it gets stale as the panes or the load of the device change.
+     *
+     * <p>The default policy of the layout is one, but it isn't given frame timings, and so only
+     * limits layers by size: frames are recorded for a policy set with
+     * {@link ShowHideMasterLayout#setHardwareLayerPolicy(HardwareLayerPolicy)}.</p>
+     */
+    public static class AdaptiveHardwareLayerPolicy implements HardwareLayerPolicy {
+        /** Number of transitions in the preferred mode after which the other one is tried. */
+        public static final int RESAMPLE_INTERVAL = 16;
+
+        private final long mMaxLayerPixels;
+
+        // Smoothed ratios of janky frames in transitions with and without layers, or -1 until
+        // one such transition is measured.
+        private float mLayeredJankRatio = -1f;
+        private float mPlainJankRatio = -1f;
+        // Transitions measured in the preferred mode since the other one was last tried.
+        private int mTransitionsSinceResample;
+
+        public AdaptiveHardwareLayerPolicy(long maxLayerPixels) {
+            mMaxLayerPixels = maxLayerPixels;
+        }
+
+        @Override
+        public boolean shouldUseHardwareLayer(View pane) {
+            if (!pane.isHardwareAccelerated()) {
+                // Would fall back to a software layer, which is never cheaper than redrawing.
+                return false;
+            }
+            long pixels = (long) pane.getWidth() * pane.getHeight();
+            if (pixels > mMaxLayerPixels) {
+                return false;
+            }
+            final boolean layered = prefersLayers();
+            final float ratio = layered ? mLayeredJankRatio : mPlainJankRatio;
+            if (ratio > 0f && mTransitionsSinceResample >= RESAMPLE_INTERVAL) {
+                return !layered;
+            }
+            return layered;
+        }
+
+        /**
+         * Use layers while they run smoothly. Once they drop frames, try without, and keep
+         * whichever drops fewer.
+         */
+        private boolean prefersLayers() {
+            if (mLayeredJankRatio <= 0f) {
+                return true;
+            }
+            return mPlainJankRatio >= 0f && mPlainJankRatio >= mLayeredJankRatio;
+        }
+
+        @Override
+        public void onTransitionFinished(boolean layered, TransitionMetrics metrics) {
+            if (metrics.frameCount == 0) {
+                return;
+            }
+            final float ratio = (float) metrics.jankyFrames / metrics.frameCount;
+            // A transition in the other mode is a resample: it replaces the stale ratio.
+            final boolean resampled = layered != prefersLayers();
+            mTransitionsSinceResample = resampled ? 0 : mTransitionsSinceResample + 1;
+            if (layered) {
+                mLayeredJankRatio = smooth(mLayeredJankRatio, ratio, resampled);
+            } else {
+                mPlainJankRatio = smooth(mPlainJankRatio, ratio, resampled);
+            }
+        }
+
+        private static float smooth(float previous, float sample, boolean stale) {
+            return previous < 0f || stale ? sample : (previous * 3 + sample) / 4;
+        }
+    }
+
     public ShowHideMasterLayout(Context context) {
         super(context);
         init();
@@ -65,6 +232,11 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     private void init() {
         mGestureDetector = new GestureDetector(getContext(), mGestureListener);
+
+        // By default allow layers up to the size of the screen, without recording frames.
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        mHardwareLayerPolicy = new AdaptiveHardwareLayerPolicy(
+                (long) metrics.widthPixels * metrics.heightPixels);
     }
 
     @Override
@@ -79,6 +251,16 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        ComponentMetrics.add(ComponentMetrics.MASTER_MEASURES, 1);
+        final int trace = ComponentTrace.beginSection("ShowHideMasterLayout#onMeasure");
+        try {
+            measurePanes(widthMeasureSpec, heightMeasureSpec);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private void measurePanes(int widthMeasureSpec, int heightMeasureSpec) {
         int count = getChildCount();
 
         // Measure once to find the maximum child size.
@@ -155,6 +337,16 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        ComponentMetrics.add(ComponentMetrics.MASTER_LAYOUTS, 1);
+        final int trace = ComponentTrace.beginSection("ShowHideMasterLayout#onLayout");
+        try {
+            layoutPanes(l, t, r, b);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private void layoutPanes(int l, int t, int r, int b) {
         updateChildReferences();
 
         if (mMasterView == null || mDetailView == null) {
@@ -188,6 +380,44 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
         }
     }
 
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (mMasterView == null || mDetailView == null
+                || (child != mMasterView && child != mDetailView)) {
+            return super.drawChild(canvas, child, drawingTime);
+        }
+
+        // Clip each pane to the part of the screen it can actually show: the master ends where
+        // the detail starts, and neither can show outside of this layout.
+        int left;
+        int right;
+        if (child == mMasterView) {
+            left = 0;
+            right = Math.min(getWidth(),
+                    (int) Math.ceil(mDetailView.getLeft() + mDetailView.getTranslationX()));
+        } else {
+            left = Math.max(0,
+                    (int) Math.floor(mMasterView.getRight() + mMasterView.getTranslationX()));
+            right = getWidth();
+        }
+
+        if (right <= left) {
+            // Entirely off-screen or covered, nothing to draw.
+            return false;
+        }
+
+        final int trace = ComponentTrace.beginSection(child == mMasterView
+                ? "ShowHideMasterLayout#drawMaster" : "ShowHideMasterLayout#drawDetail");
+        final int saveCount = canvas.save();
+        try {
+            canvas.clipRect(left, 0, right, getHeight());
+            return super.drawChild(canvas, child, drawingTime);
+        } finally {
+            canvas.restoreToCount(saveCount);
+            ComponentTrace.endSection(trace);
+        }
+    }
+
     private void updateChildReferences() {
         int childCount = getChildCount();
         mMasterView = (childCount > 0) ? getChildAt(0) : null;
@@ -211,6 +441,38 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
         mOnMasterVisibilityChangedListener = listener;
     }
 
+    /**
+     * Request the given listener be notified with frame timings of each animated show/hide
+     * transition. Frames are only recorded while a listener, or a hardware layer policy set with
+     * {@link #setHardwareLayerPolicy(HardwareLayerPolicy)}, is set.
+     *
+     * @param listener The listener to notify, or null to stop notifying.
+     */
+    public void setOnTransitionMetricsListener(OnTransitionMetricsListener listener) {
+        mOnTransitionMetricsListener = listener;
+        if (listener == null && !mRecordForPolicy && mFrameRecorder != null) {
+            mFrameRecorder.stop();
+            mFrameRecorder = null;
+        }
+    }
+
+    /**
+     * Sets the policy deciding whether panes are animated on hardware layers. Defaults to an
+     * {@link AdaptiveHardwareLayerPolicy} sized for the current display, which records nothing.
+     * A policy set here is given the frame timings of the transitions, recorded on every frame,
+     * to adapt to the device.
+     *
+     * @param policy The policy to use, or null to never use hardware layers.
+     */
+    public void setHardwareLayerPolicy(HardwareLayerPolicy policy) {
+        mHardwareLayerPolicy = policy;
+        mRecordForPolicy = policy != null;
+        if (policy == null && mOnTransitionMetricsListener == null && mFrameRecorder != null) {
+            mFrameRecorder.stop();
+            mFrameRecorder = null;
+        }
+    }
+
     /**
      * Returns whether or not the master pane is visible.
      *
@@ -240,6 +502,12 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
             return;
         }
 
+        if (mAnimatorSet != null) {
+            // End the running transition, which runs its own complete runnable, before starting
+            // from where it stopped.
+            mAnimatorSet.cancel();
+        }
+
         mShowMasterCompleteRunnable = completeRunnable;
         mFirstShow = false;
 
@@ -269,9 +537,19 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
             // Animate if we have Honeycomb APIs, don't animate otherwise
             mIsAnimating = true;
-            AnimatorSet animatorSet = new AnimatorSet();
-            mMasterView.setLayerType(LAYER_TYPE_HARDWARE, null);
-            mDetailView.setLayerType(LAYER_TYPE_HARDWARE, null);
+            mTransitionCanceled = false;
+            final AnimatorSet animatorSet = new AnimatorSet();
+            mAnimatorSet = animatorSet;
+            mMasterLayered = mHardwareLayerPolicy != null
+                    && mHardwareLayerPolicy.shouldUseHardwareLayer(mMasterView);
+            mDetailLayered = mHardwareLayerPolicy != null
+                    && mHardwareLayerPolicy.shouldUseHardwareLayer(mDetailView);
+            if (mMasterLayered) {
+                mMasterView.setLayerType(LAYER_TYPE_HARDWARE, null);
+            }
+            if (mDetailLayered) {
+                mDetailView.setLayerType(LAYER_TYPE_HARDWARE, null);
+            }
             animatorSet
                     .play(ObjectAnimator
                             .ofFloat(mMasterView, "translationX", translationX)
@@ -280,6 +558,7 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
                             .ofFloat(mDetailView, "translationX", translationX)
                             .setDuration(duration));
             animatorSet.addListener(this);
+            startFrameRecording(show);
             animatorSet.start();
 
             // For API level 12+, use this instead:
@@ -296,6 +575,15 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     @Override
     public boolean onInterceptTouchEvent(MotionEvent event) {
+        final int trace = ComponentTrace.beginSection("ShowHideMasterLayout#onInterceptTouchEvent");
+        try {
+            return interceptTouchEvent(event);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private boolean interceptTouchEvent(MotionEvent event) {
         if (mFlingToExposeMaster
                 && !mMasterVisible) {
             mGestureDetector.onTouchEvent(event);
@@ -312,6 +600,15 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        final int trace = ComponentTrace.beginSection("ShowHideMasterLayout#onTouchEvent");
+        try {
+            return handleTouchEvent(event);
+        } finally {
+            ComponentTrace.endSection(trace);
+        }
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
         if (mFlingToExposeMaster
                 && !mMasterVisible
                 && mGestureDetector.onTouchEvent(event)) {
@@ -334,9 +631,13 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     @Override
     public void onAnimationEnd(Animator animator) {
+        if (animator != mAnimatorSet) {
+            return;
+        }
+        mAnimatorSet = null;
         mIsAnimating = false;
-        mMasterView.setLayerType(LAYER_TYPE_NONE, null);
-        mDetailView.setLayerType(LAYER_TYPE_NONE, null);
+        finishFrameRecording(!mTransitionCanceled);
+        clearTransitionLayers();
         requestLayout();
         if (mShowMasterCompleteRunnable != null) {
             mShowMasterCompleteRunnable.run();
@@ -346,13 +647,9 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
 
     @Override
     public void onAnimationCancel(Animator animator) {
-        mIsAnimating = false;
-        mMasterView.setLayerType(LAYER_TYPE_NONE, null);
-        mDetailView.setLayerType(LAYER_TYPE_NONE, null);
-        requestLayout();
-        if (mShowMasterCompleteRunnable != null) {
-            mShowMasterCompleteRunnable.run();
-            mShowMasterCompleteRunnable = null;
+        if (animator == mAnimatorSet) {
+            // Finished in onAnimationEnd, which follows.
+            mTransitionCanceled = true;
         }
     }
 
@@ -360,6 +657,124 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
     public void onAnimationRepeat(Animator animator) {
     }
 
+    private void startFrameRecording(boolean show) {
+        if ((mOnTransitionMetricsListener == null && !mRecordForPolicy)
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        if (mRefreshRate == 0) {
+            WindowManager wm = (WindowManager) getContext().getSystemService(
+                    Context.WINDOW_SERVICE);
+            mRefreshRate = wm.getDefaultDisplay().getRefreshRate();
+        }
+        // One recorder per transition, finished with its own animator.
+        mFrameRecorder = new TransitionFrameRecorder(mRefreshRate);
+        mFrameRecorder.start(show);
+    }
+
+    /**
+     * @param finished Whether the transition ran to its end, rather than being interrupted.
+     */
+    private void finishFrameRecording(boolean finished) {
+        if (mFrameRecorder == null) {
+            return;
+        }
+        TransitionMetrics metrics = mFrameRecorder.stop();
+        mFrameRecorder = null;
+        if (finished && mRecordForPolicy) {
+            mHardwareLayerPolicy.onTransitionFinished(mMasterLayered || mDetailLayered, metrics);
+        }
+        if (mOnTransitionMetricsListener != null) {
+            mOnTransitionMetricsListener.onTransitionMetrics(metrics);
+        }
+    }
+
+    private void clearTransitionLayers() {
+        if (mMasterLayered) {
+            mMasterView.setLayerType(LAYER_TYPE_NONE, null);
+            mMasterLayered = false;
+        }
+        if (mDetailLayered) {
+            mDetailView.setLayerType(LAYER_TYPE_NONE, null);
+            mDetailLayered = false;
+        }
+    }
+
+    static class SavedState extends BaseSavedState {
+        boolean masterVisible;
+        int translateAmount;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            masterVisible = in.readInt() != 0;
+            translateAmount = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(masterVisible ? 1 : 0);
+            out.writeInt(translateAmount);
+        }
+
+        @Override
+        public String toString() {
+            return "ShowHideMasterLayout.SavedState{"
+                    + Integer.toHexString(System.identityHashCode(this))
+                    + " masterVisible=" + masterVisible
+                    + " translateAmount=" + translateAmount + "}";
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR
+                = new Parcelable.Creator<SavedState>() {
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    @Override
+    public Parcelable onSaveInstanceState() {
+        Parcelable superState = super.onSaveInstanceState();
+        SavedState ss = new SavedState(superState);
+
+        ss.masterVisible = mMasterVisible;
+        ss.translateAmount = mTranslateAmount;
+        return ss;
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        SavedState ss = (SavedState) state;
+
+        super.onRestoreInstanceState(ss.getSuperState());
+        // Counts as the first show: a later showMaster() to the same visibility does nothing.
+        mFirstShow = false;
+        mMasterVisible = ss.masterVisible;
+        mTranslateAmount = ss.translateAmount;
+
+        // Translate the panes before the first layout, which keeps the translation, instead of
+        // animating them or requesting another layout. The layout updates the translate amount
+        // if the master width changed with the configuration.
+        updateChildReferences();
+        if (mMasterView != null && mDetailView != null && !mIsAnimating) {
+            final float translationX = mMasterVisible ? 0 : -mTranslateAmount;
+            mMasterView.setTranslationX(translationX);
+            mDetailView.setTranslationX(translationX);
+        }
+        if (mOnMasterVisibilityChangedListener != null) {
+            mOnMasterVisibilityChangedListener.onMasterVisibilityChanged(mMasterVisible);
+        }
+    }
+
     private final GestureDetector.OnGestureListener mGestureListener =
             new GestureDetector.SimpleOnGestureListener() {
                 @Override
@@ -385,4 +800,69 @@ public class ShowHideMasterLayout extends ViewGroup implements Animator.Animator
                     return super.onFling(e1, e2, velocityX, velocityY);
                 }
             };
+
+    /**
+     * Records the time between consecutive frames through {@link Choreographer} callbacks.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class TransitionFrameRecorder implements Choreographer.FrameCallback {
+        private final long mJankThresholdNanos;
+
+        private boolean mRecording;
+        private boolean mMasterShown;
+        private long mFirstFrameNanos;
+        private long mLastFrameNanos;
+        private int mFrameCount;
+        private long[] mFrameDurations = new long[32];
+        private int mDurationCount;
+        private int mJankyFrames;
+
+        TransitionFrameRecorder(float refreshRate) {
+            if (refreshRate <= 0) {
+                refreshRate = 60f;
+            }
+            mJankThresholdNanos = (long) (1.5f * 1000000000L / refreshRate);
+        }
+
+        void start(boolean masterShown) {
+            mRecording = true;
+            mMasterShown = masterShown;
+            mFirstFrameNanos = 0;
+            mLastFrameNanos = 0;
+            mFrameCount = 0;
+            mDurationCount = 0;
+            mJankyFrames = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        TransitionMetrics stop() {
+            mRecording = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            return new TransitionMetrics(mMasterShown, mFrameCount,
+                    Arrays.copyOf(mFrameDurations, mDurationCount), mJankyFrames,
+                    mLastFrameNanos - mFirstFrameNanos);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRecording) {
+                return;
+            }
+            mFrameCount++;
+            if (mFirstFrameNanos == 0) {
+                mFirstFrameNanos = frameTimeNanos;
+            } else {
+                final long duration = frameTimeNanos - mLastFrameNanos;
+                if (mDurationCount == mFrameDurations.length) {
+                    mFrameDurations = Arrays.copyOf(mFrameDurations, mDurationCount * 2);
+                }
+                mFrameDurations[mDurationCount++] = duration;
+                if (duration > mJankThresholdNanos) {
+                    mJankyFrames++;
+                }
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package mona.android.customcomponents;
+
+import android.view.animation.Interpolator;
+
+/**
+ * An interpolator following a damped spring settling on the end value, computed analytically so
+ * that it does not depend on the frame rate.
+ *
+ * <p>All parameters are expressed per animation duration: a damping of 4 divides the oscillation
+ * amplitude by e<sup>4</sup> over the whole animation, a frequency of 2&pi; makes one full
+ * oscillation.</p>
+ */
+public class SpringInterpolator implements Interpolator {
+
+    /**
+     * Duration, in milliseconds, of the keyframes of {@code R.anim.menu_btn_anim}.
+     */
+    public static final int MENU_BUTTON_BOUNCE_DURATION = 493;
+
+    private final float mDamping;
+    private final float mFrequency;
+    private final float mDisplacement;
+    private final float mSineCoefficient;
+
+    /**
+     * Creates a spring released from rest at the start value.
+     *
+     * @param damping exponential decay rate of the oscillation
+     * @param frequency angular frequency of the oscillation, in radians
+     */
+    public SpringInterpolator(float damping, float frequency) {
+        this(damping, frequency, 1f, 0f);
+    }
+
+    /**
+     * @param damping exponential decay rate of the oscillation
+     * @param frequency angular frequency of the oscillation, in radians
+     * @param displacement initial distance to the end value: 1 starts at the start value, 0 starts
+     *            on the end value
+     * @param velocity initial velocity towards the end value
+     */
+    public SpringInterpolator(float damping, float frequency, float displacement, float velocity) {
+        if (frequency <= 0) {
+            throw new IllegalArgumentException("frequency must be positive");
+        }
+        mDamping = damping;
+        mFrequency = frequency;
+        mDisplacement = displacement;
+        mSineCoefficient = (damping * displacement - velocity) / frequency;
+    }
+
+    /**
+     * Returns the curve sampled by {@code R.anim.menu_btn_anim}: the value jumps to its end and is
+     * kicked past it, then settles. To be used over {@link #MENU_BUTTON_BOUNCE_DURATION}; it
+     * matches the keyframes within 0.01% of the travelled distance. Played by a translation from
+     * one parent height below the resting position to it, it replaces the 29 animations of the
+     * resource, which is kept for existing users.
+     */
+    public static SpringInterpolator createMenuButtonBounce() {
+        return new SpringInterpolator(7.41f, 4.445f, 0f, 2.594f);
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        final double envelope = Math.exp(-mDamping * input);
+        final double angle = mFrequency * input;
+        return (float) (1 - envelope
+                * (mDisplacement * Math.cos(angle) + mSineCoefficient * Math.sin(angle)));
+    }
+}
@@ -0,0 +1,126 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.support.v4.util.LongSparseArray;
+import android.util.AttributeSet;
+
+import java.util.WeakHashMap;
+
+/**
+ * Caches the resolved values of a styleable per theme and style, so that views inflated many
+ * times with the same style only call {@link Context#obtainStyledAttributes} once.
+ *
+ * <p>Values are only cached for views whose attributes of the styleable all come from a style or
+ * the theme. A view setting one of them directly in its layout gets its own resolved values, as
+ * before. Resolved values must be immutable; drawables should be kept as constant states.</p>
+ *
+ * <p>Values are kept along with the configuration they were resolved in. A theme whose resources
+ * are updated in place, for instance for a new locale or density, starts over.</p>
+ *
+ * @param <T> The type of the resolved values.
+ */
+final class StyledAttributeCache<T> {
+
+    interface Resolver<T> {
+        /**
+         * Reads the values of a view from its styled attributes.
+         */
+        T resolve(Resources res, TypedArray a);
+
+        /**
+         * @return Whether the values can be shared with other views, which is not the case if
+         * they hold a drawable without a constant state.
+         */
+        boolean isShareable(T values);
+    }
+
+    private final int[] mStyleable;
+    private final Resolver<T> mResolver;
+
+    /**
+     * The values resolved with a theme, by style and default style attribute.
+     */
+    private static final class ThemeValues<T> {
+        final Configuration configuration;
+        final LongSparseArray<T> styles = new LongSparseArray<T>();
+
+        ThemeValues(Configuration configuration) {
+            this.configuration = new Configuration(configuration);
+        }
+    }
+
+    private final WeakHashMap<Resources.Theme, ThemeValues<T>> mCache =
+            new WeakHashMap<Resources.Theme, ThemeValues<T>>();
+
+    StyledAttributeCache(int[] styleable, Resolver<T> resolver) {
+        mStyleable = styleable;
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns the values for a view, resolving them only if no view with the same theme and style
+     * did before.
+     */
+    T get(Context context, AttributeSet attrs, int defStyleAttr) {
+        if (setsStyleableAttribute(attrs)) {
+            return resolve(context, attrs, defStyleAttr);
+        }
+
+        final Resources.Theme theme = context.getTheme();
+        final int style = attrs != null ? attrs.getStyleAttribute() : 0;
+        final long key = ((long) style << 32) | (defStyleAttr & 0xffffffffL);
+        final Configuration configuration = context.getResources().getConfiguration();
+
+        synchronized (mCache) {
+            ThemeValues<T> themeValues = mCache.get(theme);
+            if (themeValues != null && themeValues.configuration.diff(configuration) != 0) {
+                // Resolved before a configuration change
+                themeValues = null;
+                mCache.remove(theme);
+            }
+            if (themeValues != null) {
+                T values = themeValues.styles.get(key);
+                if (values != null) {
+                    return values;
+                }
+            }
+
+            T values = resolve(context, attrs, defStyleAttr);
+            if (mResolver.isShareable(values)) {
+                if (themeValues == null) {
+                    themeValues = new ThemeValues<T>(configuration);
+                    mCache.put(theme, themeValues);
+                }
+                themeValues.styles.put(key, values);
+            }
+            return values;
+        }
+    }
+
+    private T resolve(Context context, AttributeSet attrs, int defStyleAttr) {
+        final TypedArray a = context.obtainStyledAttributes(attrs, mStyleable, defStyleAttr, 0);
+        try {
+            return mResolver.resolve(context.getResources(), a);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    private boolean setsStyleableAttribute(AttributeSet attrs) {
+        if (attrs == null) {
+            return false;
+        }
+        for (int i = 0, count = attrs.getAttributeCount(); i < count; i++) {
+            final int nameResource = attrs.getAttributeNameResource(i);
+            for (int attr : mStyleable) {
+                if (attr == nameResource) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
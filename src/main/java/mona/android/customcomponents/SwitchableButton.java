@@ -1,21 +1,25 @@
 package mona.android.customcomponents;
 
 import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.StateListDrawable;
+import android.text.Layout;
+import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.view.View;
 import android.widget.Button;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /*
 * A custom button with a switchable state : .ex state on and off and with the bossibility to
 * set a background and a text for each state
 */
-public class SwitchableButton extends Button {
+public class SwitchableButton extends Button implements RecyclableComponent {
 
 	private Context mContext;
 	private int mOnTextColor;
@@ -30,7 +34,15 @@ public class SwitchableButton extends Button {
 	private boolean mChecked;
 	private OnClickListener mToggleListener = null;
 
-	CompositeOnClickListener mGroupListener;
+	private boolean mLayoutStable;
+	// The size locked in the layout stable mode, or 0 while none is.
+	private int mStableWidth;
+	private int mStableHeight;
+	private final Rect mBackgroundPadding = new Rect();
+
+	private static final int[] CHECKED_STATE_SET = { android.R.attr.state_checked };
+
+	mona.android.customcomponents.CompositeOnClickListener mGroupListener;
 	
 	public SwitchableButton(Context context) {
 		this(context, (AttributeSet) null);
@@ -44,53 +56,252 @@ public class SwitchableButton extends Button {
 		super(context, attrs, defStyle);
 		mContext = context;
 		
-		 // Attribute initialization
-        final TypedArray a = context.obtainStyledAttributes(attrs, 
-        		R.styleable.TextAndColorSwitchableButton,
-                defStyle, 0);
-
-        mOnTextColor = a.getInt(R.styleable.TextAndColorSwitchableButton_onTextColor,
-        					Color.WHITE);
-        mOffTextColor = a.getInt(R.styleable.TextAndColorSwitchableButton_offTextColor,
-				Color.BLACK);
-        
-        mOnBackground = a.getDrawable(R.styleable.TextAndColorSwitchableButton_onBackground);
-        if(mOnBackground == null){
-        	mOnBackground = getResources().getDrawable(android.R.drawable.btn_default);
-        }
-        
-        mOffBackground = a.getDrawable(R.styleable.TextAndColorSwitchableButton_offBackground);
-        if(mOffBackground == null){
-        	mOffBackground = getResources().getDrawable(android.R.drawable.btn_default);
-        }
-        mOnText = a.getString(R.styleable.TextAndColorSwitchableButton_onText);
-        mOffText = a.getString(R.styleable.TextAndColorSwitchableButton_offText);
-        a.recycle();
+		// Attribute initialization, shared by all the buttons with the same style
+		final StyledAttributes attributes = sStyledAttributeCache.get(context, attrs, defStyle);
+
+		mOnTextColor = attributes.onTextColor;
+		mOffTextColor = attributes.offTextColor;
+		mOnBackground = attributes.newOnBackground(getResources());
+		mOffBackground = attributes.newOffBackground(getResources());
+		mOnText = attributes.onText;
+		mOffText = attributes.offText;
 		init();
+		setLayoutStable(attributes.layoutStable);
 	}
 
-	private void init(){
-		mGroupListener = new CompositeOnClickListener();
-		setOnClickListener(mGroupListener);
-		
-		mGroupListener.addOnClickListener(new View.OnClickListener(){
-			@Override
-			public void onClick(View v){
-				setChecked(!isChecked());
+	/**
+	 * The resolved styled attributes of a SwitchableButton.
+	 */
+	private static final class StyledAttributes {
+		final int onTextColor;
+		final int offTextColor;
+		// Null when the default button background is used.
+		final Drawable.ConstantState onBackgroundState;
+		final Drawable.ConstantState offBackgroundState;
+		// Only set when a background has no constant state, making these attributes unshareable.
+		final Drawable onBackground;
+		final Drawable offBackground;
+		final String onText;
+		final String offText;
+		final boolean layoutStable;
+		final boolean shareable;
+
+		StyledAttributes(TypedArray a) {
+			onTextColor = a.getInt(R.styleable.TextAndColorSwitchableButton_onTextColor,
+					Color.WHITE);
+			offTextColor = a.getInt(R.styleable.TextAndColorSwitchableButton_offTextColor,
+					Color.BLACK);
+			Drawable on = a.getDrawable(R.styleable.TextAndColorSwitchableButton_onBackground);
+			Drawable off = a.getDrawable(R.styleable.TextAndColorSwitchableButton_offBackground);
+			onBackgroundState = on != null ? on.getConstantState() : null;
+			offBackgroundState = off != null ? off.getConstantState() : null;
+			onBackground = onBackgroundState == null ? on : null;
+			offBackground = offBackgroundState == null ? off : null;
+			shareable = onBackground == null && offBackground == null;
+			onText = a.getString(R.styleable.TextAndColorSwitchableButton_onText);
+			offText = a.getString(R.styleable.TextAndColorSwitchableButton_offText);
+			layoutStable = a.getBoolean(R.styleable.TextAndColorSwitchableButton_layoutStable,
+					false);
+		}
+
+		Drawable newOnBackground(Resources res) {
+			return newBackground(res, onBackgroundState, onBackground);
+		}
+
+		Drawable newOffBackground(Resources res) {
+			return newBackground(res, offBackgroundState, offBackground);
+		}
+
+		private static Drawable newBackground(Resources res, Drawable.ConstantState state,
+				Drawable drawable) {
+			if (state != null) {
+				return state.newDrawable(res).mutate();
 			}
-		});
+			if (drawable != null) {
+				return drawable;
+			}
+			return SharedDrawableCache.getDrawable(res, android.R.drawable.btn_default);
+		}
+	}
+
+	private static final StyledAttributeCache<StyledAttributes> sStyledAttributeCache =
+			new StyledAttributeCache<StyledAttributes>(R.styleable.TextAndColorSwitchableButton,
+					new StyledAttributeCache.Resolver<StyledAttributes>() {
+						@Override
+						public StyledAttributes resolve(Resources res, TypedArray a) {
+							return new StyledAttributes(a);
+						}
+
+						@Override
+						public boolean isShareable(StyledAttributes values) {
+							return values.shareable;
+						}
+					});
+
+	private void init(){
+		mGroupListener = new mona.android.customcomponents.CompositeOnClickListener();
+		setOnClickListener(mSwitchClickListener);
 		
 		setChecked(false);
 	}
 
+	// Switches the button, then notifies the listeners added to it.
+	private final OnClickListener mSwitchClickListener = new OnClickListener() {
+		@Override
+		public void onClick(View v) {
+			setChecked(!isChecked());
+			mGroupListener.onClick(v);
+		}
+	};
+
+	/**
+	 * Switches the button off and removes the click listeners added to it.
+	 */
+	@Override
+	public void resetForReuse() {
+		mGroupListener.clear();
+		mToggleListener = null;
+		if (mChecked) {
+			setChecked(false);
+		}
+		jumpDrawablesToCurrentState();
+	}
+
 	//TODO: maybe implements Checkable and override interface's methods
 	public void setChecked(boolean checked) {
 		mChecked = checked;
 	    syncTextState();
 	}
 
+	/**
+	 * Enables or disables the layout stable mode. In this mode the button is measured to fit both
+	 * its on and off texts and backgrounds, and toggling only swaps the text and the drawable
+	 * state, without requesting a layout. Both texts must be set and fit on a single line. The
+	 * size is locked through the minimum and maximum width and height of the text view, which
+	 * then rebuilds its text layout in place when the text changes.
+	 */
+	public void setLayoutStable(boolean layoutStable) {
+		if (mLayoutStable == layoutStable) {
+			return;
+		}
+		mLayoutStable = layoutStable;
+		if (isLayoutStable()) {
+			// On and off looks are selected through the checked drawable state from now on.
+			StateListDrawable background = new StateListDrawable();
+			background.addState(CHECKED_STATE_SET, mOffBackground);
+			background.addState(new int[0], mOnBackground);
+			setBackground(background);
+			setTextColor(new ColorStateList(
+					new int[][] { CHECKED_STATE_SET, new int[0] },
+					new int[] { mOffTextColor, mOnTextColor }));
+		}
+		if (!isLayoutStable() && mStableWidth != 0) {
+			// Back to the minimum size of the view and its background.
+			mStableWidth = 0;
+			mStableHeight = 0;
+			setMinWidth(0);
+			setMaxWidth(Integer.MAX_VALUE);
+			setMinHeight(0);
+			setMaxHeight(Integer.MAX_VALUE);
+		}
+		refreshDrawableState();
+		syncTextState();
+		requestLayout();
+	}
+
+	private boolean isLayoutStable() {
+		return mLayoutStable && mOnText != null && mOffText != null;
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		final int trace = ComponentTrace.beginSection("SwitchableButton#onMeasure");
+		try {
+			measureStable(widthMeasureSpec, heightMeasureSpec);
+		} finally {
+			ComponentTrace.endSection(trace);
+		}
+	}
+
+	private void measureStable(int widthMeasureSpec, int heightMeasureSpec) {
+		if (isLayoutStable()) {
+			lockStableSize();
+		}
+		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+	}
+
+	/**
+	 * Locks the size to the largest of both states: the widest text and the largest paddings of
+	 * both backgrounds, around the compound drawables. Only changes the text view's limits, and
+	 * requests a layout, when the size changed.
+	 */
+	private void lockStableSize() {
+		final TextPaint paint = getPaint();
+		final int textWidth = (int) Math.ceil(Math.max(Layout.getDesiredWidth(mOnText, paint),
+				Layout.getDesiredWidth(mOffText, paint)));
+		// Both texts hold on a single line of the same paint.
+		final Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+		int contentHeight = metrics.bottom - metrics.top;
+
+		final Drawable[] drawables = getCompoundDrawables();
+		for (int i = 0; i < drawables.length; i += 2) {
+			// Left and right
+			if (drawables[i] != null) {
+				contentHeight = Math.max(contentHeight, drawables[i].getBounds().height());
+			}
+		}
+		// Compound drawables and their padding
+		final int drawablesWidth = getCompoundPaddingLeft() + getCompoundPaddingRight()
+				- getPaddingLeft() - getPaddingRight();
+		final int drawablesHeight = getCompoundPaddingTop() + getCompoundPaddingBottom()
+				- getPaddingTop() - getPaddingBottom();
+
+		int paddingWidth = getPaddingLeft() + getPaddingRight();
+		int paddingHeight = getPaddingTop() + getPaddingBottom();
+		final Rect padding = mBackgroundPadding;
+		if (mOnBackground != null && mOnBackground.getPadding(padding)) {
+			paddingWidth = Math.max(paddingWidth, padding.left + padding.right);
+			paddingHeight = Math.max(paddingHeight, padding.top + padding.bottom);
+		}
+		if (mOffBackground != null && mOffBackground.getPadding(padding)) {
+			paddingWidth = Math.max(paddingWidth, padding.left + padding.right);
+			paddingHeight = Math.max(paddingHeight, padding.top + padding.bottom);
+		}
+
+		final int width = Math.max(getSuggestedMinimumWidth(),
+				textWidth + drawablesWidth + paddingWidth);
+		final int height = Math.max(getSuggestedMinimumHeight(),
+				contentHeight + drawablesHeight + paddingHeight);
+		if (width != mStableWidth) {
+			mStableWidth = width;
+			// Equal limits tell the text view that its width doesn't follow its text.
+			setMinWidth(width);
+			setMaxWidth(width);
+		}
+		if (height != mStableHeight) {
+			mStableHeight = height;
+			setMinHeight(height);
+			setMaxHeight(height);
+		}
+	}
+
+	@Override
+	protected int[] onCreateDrawableState(int extraSpace) {
+		final int[] drawableState = super.onCreateDrawableState(extraSpace + 1);
+		if (mLayoutStable && isChecked()) {
+			mergeDrawableStates(drawableState, CHECKED_STATE_SET);
+		}
+		return drawableState;
+	}
+
 	private void syncTextState() {
 		boolean checked = isChecked();
+		if (isLayoutStable()) {
+			// The size fits both texts: the text view rebuilds its text layout in place.
+			setText(checked ? mOffText : mOnText);
+			refreshDrawableState();
+			return;
+		}
 		if (! checked && mOnText != null) {
 			setText(mOnText);
 			setTextColor(mOnTextColor);
@@ -120,27 +331,11 @@ public class SwitchableButton extends Button {
         mGroupListener.addOnClickListener(mToggleListener);
     }
 
-    public class CompositeOnClickListener implements View.OnClickListener {
-        List<OnClickListener> listeners;
-
-        public CompositeOnClickListener() {
-            listeners = new ArrayList<OnClickListener>();
-        }
-
-        public void addOnClickListener(View.OnClickListener listener) {
-            listeners.add(listener);
-        }
-
-        //TODO: make sure remove(Obj) here works
-        public void removeOnClickListener(View.OnClickListener listener) {
-            listeners.remove(listener);
-        }
-
-        @Override
-        public void onClick(View v) {
-            for (View.OnClickListener listener : listeners) {
-                listener.onClick(v);
-            }
-        }
-    }
-}
\ No newline at end of file
+	/**
+	 * @deprecated Use the top-level {@link mona.android.customcomponents.CompositeOnClickListener}.
+	 */
+	@Deprecated
+	public class CompositeOnClickListener
+			extends mona.android.customcomponents.CompositeOnClickListener {
+	}
+}
@@ -0,0 +1,279 @@
+package mona.android.customcomponents;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A large image drawn from tiles decoded on demand, so that memory scales with the area shown
+ * rather than with the image.
+ *
+ * <p>Tiles are {@link #TILE_SIZE} pixels wide once decoded, at the largest power of two sample
+ * size that keeps at least one decoded pixel per displayed pixel. They are decoded on a background
+ * thread and kept in an LRU sized for a bit more than the viewport. Decodes of tiles no longer
+ * drawn are cancelled before they start, and a missing tile is drawn from a cached tile of a
+ * coarser sample size, if any, until it is decoded. Must be used from the main thread.</p>
+ */
+final class TiledImage {
+
+    static final int TILE_SIZE = 256;
+
+    private static ExecutorService sDecodeExecutor;
+
+    /**
+     * Interface definition for a callback invoked on the main thread when a tile is ready.
+     */
+    interface OnTileLoadedListener {
+        void onTileLoaded();
+    }
+
+    private static final class Tile {
+        final Bitmap bitmap;
+        long lastUse;
+
+        Tile(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static final class PendingDecode {
+        Future<?> future;
+        // The draw that last wanted the tile.
+        int draw;
+    }
+
+    private final BitmapRegionDecoder mDecoder;
+    private final int mWidth;
+    private final int mHeight;
+    private final OnTileLoadedListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Tiles by sample size, row and column, evicted least recently drawn first.
+    private final LongSparseArray<Tile> mTiles = new LongSparseArray<Tile>();
+    private int mCapacity;
+    private long mUseClock;
+    private final LongSparseArray<PendingDecode> mPending = new LongSparseArray<PendingDecode>();
+    private int mDrawCount;
+    private volatile boolean mReleased;
+
+    private final Rect mTileRect = new Rect();
+    private final RectF mTileDst = new RectF();
+    private final Rect mFallbackSrc = new Rect();
+
+    TiledImage(BitmapRegionDecoder decoder, OnTileLoadedListener listener) {
+        mDecoder = decoder;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mListener = listener;
+        setViewportSize(TILE_SIZE, TILE_SIZE);
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Sizes the tile cache for a viewport, in which a tile takes between half and all of its
+     * decoded size. Shrinking it only evicts the least recently drawn tiles over the new size.
+     */
+    void setViewportSize(int width, int height) {
+        final int half = TILE_SIZE / 2;
+        mCapacity = ((width + half - 1) / half + 1) * ((height + half - 1) / half + 1);
+        trimTiles();
+    }
+
+    private static long tileKey(int sampleSize, int row, int column) {
+        return ((long) sampleSize << 48) | ((long) row << 24) | column;
+    }
+
+    private Bitmap getTile(long key) {
+        final Tile tile = mTiles.get(key);
+        if (tile == null) {
+            return null;
+        }
+        tile.lastUse = ++mUseClock;
+        return tile.bitmap;
+    }
+
+    private void putTile(long key, Bitmap bitmap) {
+        final Tile tile = new Tile(bitmap);
+        tile.lastUse = ++mUseClock;
+        mTiles.put(key, tile);
+        trimTiles();
+    }
+
+    private void trimTiles() {
+        while (mTiles.size() > mCapacity) {
+            int oldest = 0;
+            for (int i = 1, count = mTiles.size(); i < count; i++) {
+                if (mTiles.valueAt(i).lastUse < mTiles.valueAt(oldest).lastUse) {
+                    oldest = i;
+                }
+            }
+            mTiles.removeAt(oldest);
+        }
+    }
+
+    /**
+     * Draws the part of the image within {@code source}, in image pixels, scaled to
+     * {@code width} by {@code height}. Missing tiles are requested, and drawn from a coarser tile
+     * meanwhile if there is one.
+     */
+    void draw(Canvas canvas, Rect source, int width, int height, Paint paint) {
+        final float scaleX = (float) width / source.width();
+        final float scaleY = (float) height / source.height();
+        final float scale = Math.max(scaleX, scaleY);
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+
+        final int draw = ++mDrawCount;
+        final int tileSpan = TILE_SIZE * sampleSize;
+        final int firstColumn = Math.max(source.left, 0) / tileSpan;
+        final int lastColumn = (Math.min(source.right, mWidth) - 1) / tileSpan;
+        final int firstRow = Math.max(source.top, 0) / tileSpan;
+        final int lastRow = (Math.min(source.bottom, mHeight) - 1) / tileSpan;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final Rect tileRect = mTileRect;
+                tileRect.set(column * tileSpan, row * tileSpan,
+                        Math.min((column + 1) * tileSpan, mWidth),
+                        Math.min((row + 1) * tileSpan, mHeight));
+                mTileDst.set((tileRect.left - source.left) * scaleX,
+                        (tileRect.top - source.top) * scaleY,
+                        (tileRect.right - source.left) * scaleX,
+                        (tileRect.bottom - source.top) * scaleY);
+
+                final long key = tileKey(sampleSize, row, column);
+                final Bitmap tile = getTile(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, mTileDst, paint);
+                } else {
+                    requestTile(key, tileRect, sampleSize, draw);
+                    drawFallback(canvas, tileRect, sampleSize, paint);
+                }
+            }
+        }
+        cancelStaleDecodes(draw);
+    }
+
+    /**
+     * Draws the area of a missing tile from the finest cached tile of a coarser sample size.
+     */
+    private void drawFallback(Canvas canvas, Rect tileRect, int sampleSize, Paint paint) {
+        final int maxDimension = Math.max(mWidth, mHeight);
+        for (int coarse = sampleSize * 2; TILE_SIZE * coarse / 2 < maxDimension; coarse *= 2) {
+            final int coarseSpan = TILE_SIZE * coarse;
+            final int row = tileRect.top / coarseSpan;
+            final int column = tileRect.left / coarseSpan;
+            final Bitmap tile = getTile(tileKey(coarse, row, column));
+            if (tile != null) {
+                // The missing tile lies within the coarse one.
+                final int left = column * coarseSpan;
+                final int top = row * coarseSpan;
+                mFallbackSrc.set((tileRect.left - left) / coarse, (tileRect.top - top) / coarse,
+                        Math.min((tileRect.right - left) / coarse, tile.getWidth()),
+                        Math.min((tileRect.bottom - top) / coarse, tile.getHeight()));
+                canvas.drawBitmap(tile, mFallbackSrc, mTileDst, paint);
+                return;
+            }
+        }
+    }
+
+    private void requestTile(final long key, Rect tileRect, final int sampleSize, int draw) {
+        final PendingDecode existing = mPending.get(key);
+        if (existing != null) {
+            existing.draw = draw;
+            return;
+        }
+        final PendingDecode pending = new PendingDecode();
+        pending.draw = draw;
+        mPending.put(key, pending);
+
+        final Rect region = new Rect(tileRect);
+        pending.future = getDecodeExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Bitmap tile = null;
+                if (!mReleased) {
+                    final BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                    tile = mDecoder.decodeRegion(region, options);
+                }
+                final Bitmap decoded = tile;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPending.get(key) != pending) {
+                            // Cancelled once started, or released.
+                            return;
+                        }
+                        mPending.remove(key);
+                        if (!mReleased && decoded != null) {
+                            putTile(key, decoded);
+                            mListener.onTileLoaded();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels the decodes of the tiles that the last draw didn't want, which haven't started yet.
+     */
+    private void cancelStaleDecodes(int draw) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            final PendingDecode pending = mPending.valueAt(i);
+            if (pending.draw != draw) {
+                pending.future.cancel(false);
+                mPending.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Drops the tiles and recycles the decoder once the decode in progress, if any, is done.
+     */
+    void release() {
+        mReleased = true;
+        mTiles.clear();
+        for (int i = 0, count = mPending.size(); i < count; i++) {
+            mPending.valueAt(i).future.cancel(false);
+        }
+        mPending.clear();
+        getDecodeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                mDecoder.recycle();
+            }
+        });
+    }
+
+    private static ExecutorService getDecodeExecutor() {
+        if (sDecodeExecutor == null) {
+            sDecodeExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sDecodeExecutor;
+    }
+}
@@ -0,0 +1,316 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CheckableLinearLayoutTest {
+
+    private static final int PLAIN_VIEWS = 50;
+
+    private Context mContext;
+    private CheckableLinearLayout mRow;
+    private CountingFrameLayout mContainer;
+    private CountingCheckBox mFirstBox;
+    private CountingCheckBox mSecondBox;
+
+    /**
+     * A container counting the children visited through it.
+     */
+    static class CountingFrameLayout extends FrameLayout {
+        int visits;
+
+        CountingFrameLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public View getChildAt(int index) {
+            visits++;
+            return super.getChildAt(index);
+        }
+    }
+
+    /**
+     * A check box counting the checked states pushed to it.
+     */
+    static class CountingCheckBox extends CheckBox {
+        int setCheckedCalls;
+
+        CountingCheckBox(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void setChecked(boolean checked) {
+            setCheckedCalls++;
+            super.setChecked(checked);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mRow = new CheckableLinearLayout(mContext);
+        mContainer = new CountingFrameLayout(mContext);
+        for (int i = 0; i < PLAIN_VIEWS; i++) {
+            mContainer.addView(new View(mContext));
+        }
+        mFirstBox = new CountingCheckBox(mContext);
+        mSecondBox = new CountingCheckBox(mContext);
+        mContainer.addView(mFirstBox);
+        mRow.addView(mContainer);
+        mRow.addView(mSecondBox);
+        layout(mRow);
+        resetCounts();
+    }
+
+    private static void layout(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, 480, 100);
+    }
+
+    private void resetCounts() {
+        mContainer.visits = 0;
+        mFirstBox.setCheckedCalls = 0;
+        mSecondBox.setCheckedCalls = 0;
+    }
+
+    @Test
+    public void propagationOnlyVisitsCheckables() {
+        mRow.setChecked(true);
+        // The first change walks the subtree once to index it.
+        assertEquals(PLAIN_VIEWS + 1, mContainer.visits);
+
+        resetCounts();
+        for (int i = 0; i < 100; i++) {
+            mRow.toggle();
+        }
+        assertEquals(0, mContainer.visits);
+        assertEquals(100, mFirstBox.setCheckedCalls);
+        assertEquals(100, mSecondBox.setCheckedCalls);
+        assertTrue(mFirstBox.isChecked());
+        assertTrue(mSecondBox.isChecked());
+    }
+
+    @Test
+    public void addedCheckableIsIndexed() {
+        mRow.setChecked(true);
+        final CheckBox added = new CheckBox(mContext);
+        mContainer.addView(added);
+
+        mRow.setChecked(false);
+        mRow.setChecked(true);
+        assertTrue(added.isChecked());
+
+        // Indexed again once laid out, with the added view.
+        layout(mRow);
+        resetCounts();
+        mRow.setChecked(false);
+        assertEquals(PLAIN_VIEWS + 2, mContainer.visits);
+        mRow.setChecked(true);
+        assertEquals(PLAIN_VIEWS + 2, mContainer.visits);
+        assertTrue(added.isChecked());
+    }
+
+    @Test
+    public void addedWhileAwaitingLayoutIsIndexed() {
+        mRow.setChecked(true);
+        // The request doesn't come up from the container again.
+        mRow.requestLayout();
+        final CheckBox added = new CheckBox(mContext);
+        mContainer.addView(added);
+
+        mRow.setChecked(false);
+        mRow.setChecked(true);
+        assertTrue(added.isChecked());
+
+        // Walked again once laid out, then trusted.
+        layout(mRow);
+        mRow.setChecked(false);
+        final CheckBox addedLater = new CheckBox(mContext);
+        mRow.requestLayout();
+        mContainer.addView(addedLater);
+        layout(mRow);
+        mRow.setChecked(false);
+        mRow.setChecked(true);
+        assertTrue(addedLater.isChecked());
+    }
+
+    @Test
+    public void removedCheckableIsDropped() {
+        mRow.setChecked(true);
+        mContainer.removeView(mFirstBox);
+        layout(mRow);
+
+        resetCounts();
+        mRow.setChecked(false);
+        assertEquals(0, mFirstBox.setCheckedCalls);
+        assertEquals(1, mSecondBox.setCheckedCalls);
+    }
+
+    @Test
+    public void childChangesAreIndexedWithoutWalking() {
+        mRow.setChecked(true);
+        final CheckBox added = new CheckBox(mContext);
+        mRow.addView(added);
+
+        resetCounts();
+        mRow.setChecked(false);
+        mRow.setChecked(true);
+        assertEquals(0, mContainer.visits);
+        assertTrue(added.isChecked());
+
+        mRow.removeView(mSecondBox);
+        mRow.setChecked(false);
+        assertEquals(0, mContainer.visits);
+        assertEquals(2, mSecondBox.setCheckedCalls);
+        assertFalse(added.isChecked());
+    }
+
+    @Test
+    public void layoutKeepsIndex() {
+        mRow.setChecked(true);
+        mRow.forceLayout();
+        layout(mRow);
+
+        resetCounts();
+        mRow.setChecked(false);
+        assertEquals(0, mContainer.visits);
+    }
+
+    @Test
+    public void hierarchyListenerIsCalled() {
+        final ArrayList<View> changes = new ArrayList<View>();
+        mRow.setOnHierarchyChangeListener(new ViewGroup.OnHierarchyChangeListener() {
+            @Override
+            public void onChildViewAdded(View parent, View child) {
+                changes.add(child);
+            }
+
+            @Override
+            public void onChildViewRemoved(View parent, View child) {
+                changes.add(child);
+            }
+        });
+        final CheckBox added = new CheckBox(mContext);
+        mRow.addView(added);
+        mRow.removeView(added);
+        assertEquals(2, changes.size());
+
+        // Still indexed
+        mRow.setChecked(true);
+        assertFalse(added.isChecked());
+        assertTrue(mSecondBox.isChecked());
+    }
+
+    @Test
+    public void nestedRowPassesStateDown() {
+        final CheckableLinearLayout nested = new CheckableLinearLayout(mContext);
+        final CheckBox nestedBox = new CheckBox(mContext);
+        nested.addView(nestedBox);
+        mRow.addView(nested);
+        layout(mRow);
+
+        nested.setChecked(true);
+        nestedBox.setChecked(false);
+
+        mRow.setChecked(true);
+        assertTrue(nested.isChecked());
+        assertTrue(nestedBox.isChecked());
+    }
+
+    @Test
+    public void resetUnchecksPlainCheckables() {
+        mRow.setChecked(true);
+        // Checked on its own, without the row
+        final CheckBox independent = new CheckBox(mContext);
+        mRow.addView(independent);
+        layout(mRow);
+        independent.setChecked(true);
+
+        RecyclableComponent.Views.resetForReuse(mRow);
+        assertFalse(mRow.isChecked());
+        assertFalse(mFirstBox.isChecked());
+        assertFalse(mSecondBox.isChecked());
+        assertFalse(independent.isChecked());
+    }
+
+    @Test
+    public void clickTogglesOnce() {
+        final int[] clicks = new int[1];
+        mRow.addOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                clicks[0]++;
+            }
+        });
+
+        mRow.performClick();
+        assertTrue(mRow.isChecked());
+        mRow.performClick();
+        assertFalse(mRow.isChecked());
+        assertEquals(2, clicks[0]);
+    }
+
+    @Test
+    public void tapTogglesOncePerClick() {
+        final ClickCountingRow row = new ClickCountingRow(mContext);
+        row.addView(new CheckBox(mContext));
+        layout(row);
+
+        final MotionEvent down = MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, 10, 10, 0);
+        final MotionEvent up = MotionEvent.obtain(0, 50, MotionEvent.ACTION_UP, 10, 10, 0);
+        row.dispatchTouchEvent(down);
+        row.dispatchTouchEvent(up);
+        down.recycle();
+        up.recycle();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertTrue(row.clicks > 0);
+        assertEquals(row.clicks, row.flips);
+    }
+
+    /**
+     * A row counting its clicks, and the clicks that flipped its checked state.
+     */
+    static class ClickCountingRow extends CheckableLinearLayout {
+        int clicks;
+        int flips;
+
+        ClickCountingRow(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean performClick() {
+            final boolean checked = isChecked();
+            final boolean handled = super.performClick();
+            clicks++;
+            if (isChecked() != checked) {
+                flips++;
+            }
+            return handled;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package mona.android.customcomponents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ComponentMetricsTest {
+
+    private static final int COUNTER = ComponentMetrics.SHAPABLE_BITMAP_BYTES;
+
+    @Before
+    public void setUp() {
+        ComponentMetrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        ComponentMetrics.setEnabled(false);
+        ComponentMetrics.reset();
+    }
+
+    @Test
+    public void allocationMadeWhileDisabledIsNotSubtracted() {
+        final int token = ComponentMetrics.addAllocation(COUNTER, 100);
+        ComponentMetrics.setEnabled(true);
+        ComponentMetrics.releaseAllocation(COUNTER, 100, token);
+        assertEquals(0, ComponentMetrics.snapshot().get(COUNTER));
+    }
+
+    @Test
+    public void allocationReleasedAfterDisablingIsSubtracted() {
+        ComponentMetrics.setEnabled(true);
+        final int first = ComponentMetrics.addAllocation(COUNTER, 100);
+        ComponentMetrics.addAllocation(COUNTER, 30);
+        ComponentMetrics.setEnabled(false);
+        ComponentMetrics.releaseAllocation(COUNTER, 100, first);
+        assertEquals(30, ComponentMetrics.snapshot().get(COUNTER));
+    }
+
+    @Test
+    public void allocationMadeBeforeResetIsNotSubtracted() {
+        ComponentMetrics.setEnabled(true);
+        final int token = ComponentMetrics.addAllocation(COUNTER, 100);
+        ComponentMetrics.reset();
+        ComponentMetrics.releaseAllocation(COUNTER, 100, token);
+        assertEquals(0, ComponentMetrics.snapshot().get(COUNTER));
+    }
+}
@@ -0,0 +1,76 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ComponentPoolTest {
+
+    private Context mContext;
+    private ComponentPool mPool;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mPool = new ComponentPool(mContext);
+    }
+
+    private void fill() {
+        while (mPool.fillOne()) {
+            // Build every missing view
+        }
+    }
+
+    @Test
+    public void registeringAgainChangesTheCount() {
+        mPool.register(CheckableFrameLayout.class, 2);
+        mPool.register(CheckableFrameLayout.class, 3);
+        fill();
+        assertEquals(3, mPool.getPooledCount(CheckableFrameLayout.class));
+
+        mPool.register(CheckableFrameLayout.class, 1);
+        assertEquals(1, mPool.getPooledCount(CheckableFrameLayout.class));
+    }
+
+    @Test
+    public void installKeepsTheExistingFactory() {
+        final LayoutInflater inflater = LayoutInflater.from(mContext).cloneInContext(mContext);
+        final int[] created = new int[1];
+        inflater.setFactory2(new LayoutInflater.Factory2() {
+            @Override
+            public View onCreateView(View parent, String name, Context context,
+                    AttributeSet attrs) {
+                created[0]++;
+                return null;
+            }
+
+            @Override
+            public View onCreateView(String name, Context context, AttributeSet attrs) {
+                return onCreateView(null, name, context, attrs);
+            }
+        });
+
+        final LayoutInflater pooled = mPool.install(inflater);
+        assertNotSame(inflater, pooled);
+        pooled.getFactory().onCreateView("TextView", mContext, null);
+        assertEquals(1, created[0]);
+
+        // Installing on an inflater without factory uses it as is.
+        final LayoutInflater plain = LayoutInflater.from(mContext).cloneInContext(mContext);
+        assertSame(plain, mPool.install(plain));
+    }
+}
@@ -0,0 +1,70 @@
+package mona.android.customcomponents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ComponentTraceTest {
+
+    @Before
+    public void setUp() {
+        ComponentTrace.setRingBufferCapacity(16);
+    }
+
+    @After
+    public void tearDown() {
+        ComponentTrace.setMode(ComponentTrace.MODE_OFF);
+    }
+
+    private static int countSections(String name) throws IOException {
+        final StringWriter writer = new StringWriter();
+        ComponentTrace.dump(writer);
+        final String dump = writer.toString();
+        final String needle = "\"name\":\"" + name + "\"";
+        int count = 0;
+        for (int i = dump.indexOf(needle); i >= 0; i = dump.indexOf(needle, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void sectionOpenedBeforeTurningTracingOffIsClosed() throws IOException {
+        ComponentTrace.setMode(ComponentTrace.MODE_RING_BUFFER);
+        final int outer = ComponentTrace.beginSection("outer");
+        final int inner = ComponentTrace.beginSection("inner");
+        ComponentTrace.setMode(ComponentTrace.MODE_OFF);
+        ComponentTrace.endSection(inner);
+        ComponentTrace.endSection(outer);
+
+        assertEquals(1, countSections("inner"));
+        assertEquals(1, countSections("outer"));
+    }
+
+    @Test
+    public void sectionOpenedWhileOffIsNotClosed() throws IOException {
+        final int off = ComponentTrace.beginSection("off");
+        ComponentTrace.setMode(ComponentTrace.MODE_RING_BUFFER);
+        final int on = ComponentTrace.beginSection("on");
+        ComponentTrace.endSection(on);
+        ComponentTrace.endSection(off);
+
+        assertEquals(0, countSections("off"));
+        assertEquals(1, countSections("on"));
+
+        // The stack is balanced: a new section is recorded at the top level.
+        final int next = ComponentTrace.beginSection("next");
+        ComponentTrace.endSection(next);
+        assertEquals(1, countSections("next"));
+    }
+}
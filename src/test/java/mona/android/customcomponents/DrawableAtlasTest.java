@@ -0,0 +1,85 @@
+package mona.android.customcomponents;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Rect;
+import android.graphics.drawable.ColorDrawable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DrawableAtlasTest {
+
+    private Resources mResources;
+    private DrawableAtlas mAtlas;
+
+    @Before
+    public void setUp() {
+        mResources = RuntimeEnvironment.application.getResources();
+        mAtlas = DrawableAtlas.getInstance();
+    }
+
+    private DrawableAtlas.Region getRegion(int resId, int width, int height) {
+        return mAtlas.getRegion(mResources, new ColorDrawable(0xffff0000), resId, width, height);
+    }
+
+    @Test
+    public void regionsAreSharedBySize() {
+        final DrawableAtlas.Region region = getRegion(1, 40, 40);
+        assertSame(region, getRegion(1, 40, 40));
+        assertNotSame(region, getRegion(1, 40, 41));
+        assertNull(getRegion(1, DrawableAtlas.MAX_REGION_SIZE + 1, 40));
+    }
+
+    @Test
+    public void regionsDoNotTouch() {
+        final DrawableAtlas.Region first = getRegion(2, 100, 100);
+        final DrawableAtlas.Region second = getRegion(3, 100, 100);
+        if (first.page == second.page) {
+            final Rect padded = new Rect(first.bounds);
+            padded.inset(-1, -1);
+            assertFalse(Rect.intersects(padded, second.bounds));
+        }
+        assertEquals(100, second.bounds.width());
+    }
+
+    @Test
+    public void fullPageSpillsToNewPage() {
+        final DrawableAtlas.Region first = getRegion(4, DrawableAtlas.MAX_REGION_SIZE,
+                DrawableAtlas.MAX_REGION_SIZE);
+        DrawableAtlas.Region last = first;
+        for (int resId = 5; last.page == first.page; resId++) {
+            last = getRegion(resId, DrawableAtlas.MAX_REGION_SIZE,
+                    DrawableAtlas.MAX_REGION_SIZE);
+        }
+        assertEquals(DrawableAtlas.PAGE_SIZE, last.page.getWidth());
+    }
+
+    @Test
+    public void configurationChangeStartsOver() {
+        final DrawableAtlas.Region region = getRegion(100, 40, 40);
+        final int generation = mAtlas.getGeneration(mResources);
+
+        final Configuration configuration = new Configuration(mResources.getConfiguration());
+        configuration.locale = Locale.JAPANESE.equals(configuration.locale)
+                ? Locale.FRENCH : Locale.JAPANESE;
+        mResources.updateConfiguration(configuration, mResources.getDisplayMetrics());
+
+        assertEquals(generation + 1, mAtlas.getGeneration(mResources));
+        assertNotSame(region, getRegion(100, 40, 40));
+    }
+}
@@ -0,0 +1,59 @@
+package mona.android.customcomponents;
+
+import android.text.Selection;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class HandleSpanClickTextViewTest {
+
+    @Test
+    public void touchesSelectTheLinkInTheDisplayedText() {
+        final SpannableString text = new SpannableString("link");
+        final int[] clicks = new int[1];
+        text.setSpan(new ClickableSpan() {
+            @Override
+            public void onClick(View widget) {
+                clicks[0]++;
+            }
+        }, 0, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        final HandleSpanClickTextView view =
+                new HandleSpanClickTextView(RuntimeEnvironment.application);
+        view.setLayoutParams(new ViewGroup.LayoutParams(200, 50));
+        view.setText(text, TextView.BufferType.NORMAL);
+        view.measure(View.MeasureSpec.makeMeasureSpec(200, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(50, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, 200, 50);
+
+        final CharSequence displayed = view.getText();
+        assertTrue(displayed instanceof Spanned);
+        final MotionEvent down = MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, 1, 1, 0);
+        final MotionEvent up = MotionEvent.obtain(0, 10, MotionEvent.ACTION_UP, 1, 1, 0);
+        view.onTouchEvent(down);
+        assertSame(displayed, view.getText());
+        assertEquals(0, Selection.getSelectionStart(displayed));
+        assertEquals(text.length(), Selection.getSelectionEnd(displayed));
+
+        view.onTouchEvent(up);
+        assertEquals(1, clicks[0]);
+        down.recycle();
+        up.recycle();
+    }
+}
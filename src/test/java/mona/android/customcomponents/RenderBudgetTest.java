@@ -0,0 +1,354 @@
+package mona.android.customcomponents;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowCanvas;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Drives each component through layout, draw and taps, and checks the allocations, invalidations
+ * and layout requests of one pass against the budgets of {@code render_budgets.properties}.
+ *
+ * <p>Passes are repeated once warmed up, each one followed by a frame: the host is laid out again
+ * if requested and drawn, so that the invalidations of the next pass reach it. Allocations are the
+ * median of the bytes allocated by the test thread during a pass, less those of an empty pass.
+ * With the Robolectric shadows that allocate more as they record kept in check, they are the same
+ * from one run to the next, so budgets are the measured values: a single object allocated per
+ * pass, such as a {@link Rect}, goes over. Invalidations and layout requests are counted as they
+ * reach the host of the component. A failure reports the measured values, to update the budgets
+ * with when a change is intended.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RenderBudgetTest {
+
+    private static final int WARM_UP = 20;
+    private static final int PASSES = 200;
+    private static final int SIZE = 100;
+
+    private static final String LAYOUT = "layout";
+    private static final String DRAW = "draw";
+    private static final String TAP = "tap";
+
+    private static final String BYTES = "bytes";
+    private static final String INVALIDATIONS = "invalidations";
+    private static final String LAYOUT_REQUESTS = "layoutRequests";
+
+    /**
+     * A host counting the invalidations and layout requests coming from its subtree.
+     */
+    static class CountingHost extends FrameLayout {
+        int invalidations;
+        int layoutRequests;
+
+        CountingHost(Context context) {
+            super(context);
+        }
+
+        @Override
+        public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+            invalidations++;
+            return super.invalidateChildInParent(location, dirty);
+        }
+
+        @Override
+        public void requestLayout() {
+            // Only called when the host is laid out, once per pass at most.
+            layoutRequests++;
+            super.requestLayout();
+        }
+
+        /**
+         * Draws the children as a frame would, which lets their next invalidations through.
+         */
+        void drawFrame(Canvas canvas) {
+            dispatchDraw(canvas);
+        }
+    }
+
+    private interface Pass {
+        void run() throws Exception;
+    }
+
+    private static Properties sBudgets;
+
+    private Activity mActivity;
+    private CountingHost mHost;
+    private Canvas mCanvas;
+    private Object[] mDrawArgs;
+    private double mEmptyPassBytes;
+    private final StringBuilder mFailures = new StringBuilder();
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(getAllocatedBytes() >= 0);
+        if (sBudgets == null) {
+            final Properties budgets = new Properties();
+            final InputStream in = RenderBudgetTest.class.getResourceAsStream(
+                    "render_budgets.properties");
+            try {
+                budgets.load(in);
+            } finally {
+                in.close();
+            }
+            sBudgets = budgets;
+        }
+        mActivity = Robolectric.setupActivity(Activity.class);
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        mDrawArgs = new Object[] {mCanvas};
+    }
+
+    @Test
+    public void shapableImageView() throws Exception {
+        final ShapableImageView view = new ShapableImageView(mActivity);
+        view.setImageBitmap(Bitmap.createBitmap(2 * SIZE, 2 * SIZE, Bitmap.Config.ARGB_8888));
+        view.setImageEffects(ImageEffect.grayscale().onlyInState(android.R.attr.state_pressed));
+        view.setClickable(true);
+        checkBudgets("ShapableImageView", view);
+    }
+
+    @Test
+    public void switchableButton() throws Exception {
+        checkBudgets("SwitchableButton", new SwitchableButton(mActivity, switchAttributes(false)));
+    }
+
+    @Test
+    public void layoutStableSwitchableButton() throws Exception {
+        checkBudgets("SwitchableButton.layoutStable",
+                new SwitchableButton(mActivity, switchAttributes(true)));
+    }
+
+    private AttributeSet switchAttributes(boolean layoutStable) {
+        return Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.onText, "On")
+                .addAttribute(R.attr.offText, "Off")
+                .addAttribute(R.attr.layoutStable, String.valueOf(layoutStable))
+                .build();
+    }
+
+    @Test
+    public void checkableLinearLayout() throws Exception {
+        final CheckableLinearLayout row = new CheckableLinearLayout(mActivity);
+        row.addView(new TextView(mActivity));
+        row.addView(new CheckableImageButton(mActivity));
+        checkBudgets("CheckableLinearLayout", row);
+    }
+
+    @Test
+    public void checkableFrameLayout() throws Exception {
+        final CheckableFrameLayout frame = new CheckableFrameLayout(mActivity);
+        frame.addView(new TextView(mActivity));
+        frame.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ((CheckableFrameLayout) v).toggle();
+            }
+        });
+        checkBudgets("CheckableFrameLayout", frame);
+    }
+
+    @Test
+    public void checkableImageButton() throws Exception {
+        checkBudgets("CheckableImageButton", new CheckableImageButton(mActivity));
+    }
+
+    @Test
+    public void showHideMasterLayout() throws Exception {
+        final ShowHideMasterLayout layout = new ShowHideMasterLayout(mActivity);
+        layout.addView(new TextView(mActivity), new ViewGroup.MarginLayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.addView(new TextView(mActivity), new ViewGroup.MarginLayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        checkBudgets("ShowHideMasterLayout", layout);
+    }
+
+    @Test
+    public void handleSpanClickTextView() throws Exception {
+        final HandleSpanClickTextView view = new HandleSpanClickTextView(mActivity);
+        final SpannableString text = new SpannableString("Tap the link");
+        text.setSpan(new ClickableSpan() {
+            @Override
+            public void onClick(View widget) {
+            }
+        }, 0, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        view.setText(text);
+        checkBudgets("HandleSpanClickTextView", view);
+    }
+
+    /**
+     * Hosts a component, runs each kind of pass on it, and fails with every budget exceeded.
+     */
+    private void checkBudgets(String component, final View view) throws Exception {
+        mHost = new CountingHost(mActivity);
+        mHost.addView(view, new FrameLayout.LayoutParams(SIZE, SIZE));
+        // Sized as laid out here, should a traversal of the window lay the host out again.
+        mActivity.setContentView(mHost, new ViewGroup.LayoutParams(SIZE, SIZE));
+        layoutHost();
+        mHost.drawFrame(mCanvas);
+
+        mEmptyPassBytes = measureBytes(new Pass() {
+            @Override
+            public void run() {
+            }
+        });
+
+        check(component + '.' + LAYOUT, new Pass() {
+            @Override
+            public void run() {
+                view.forceLayout();
+                mHost.forceLayout();
+                layoutHost();
+            }
+        });
+
+        // Robolectric only draws the background in View#draw(Canvas): call the method drawing
+        // the content of the component, its children having budgets of their own.
+        final Method onDraw = View.class.getDeclaredMethod("onDraw", Canvas.class);
+        onDraw.setAccessible(true);
+        check(component + '.' + DRAW, new Pass() {
+            @Override
+            public void run() throws Exception {
+                onDraw.invoke(view, mDrawArgs);
+            }
+        });
+
+        // Robolectric runs the click posted on the up event and, its View#post() returning no
+        // result, the view clicks again: a tap pass clicks twice.
+        final long time = 1000;
+        final float center = SIZE / 2f;
+        final MotionEvent down = MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN,
+                center, center, 0);
+        final MotionEvent up = MotionEvent.obtain(time, time + 50, MotionEvent.ACTION_UP,
+                center, center, 0);
+        check(component + '.' + TAP, new Pass() {
+            @Override
+            public void run() {
+                view.dispatchTouchEvent(down);
+                view.dispatchTouchEvent(up);
+                // The end of the pressed state is posted.
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            }
+        });
+        down.recycle();
+        up.recycle();
+
+        if (mFailures.length() > 0) {
+            fail("Over budget:" + mFailures);
+        }
+    }
+
+    private void layoutHost() {
+        mHost.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        mHost.layout(0, 0, SIZE, SIZE);
+    }
+
+    private void check(String name, Pass pass) throws Exception {
+        final double bytes = measureBytes(pass) - mEmptyPassBytes;
+        // Counted over passes of their own, without the bookkeeping of the allocations.
+        mHost.invalidations = 0;
+        mHost.layoutRequests = 0;
+        for (int i = 0; i < PASSES; i++) {
+            pass.run();
+            frame();
+        }
+
+        checkBudget(name, BYTES, bytes);
+        checkBudget(name, INVALIDATIONS, (double) mHost.invalidations / PASSES);
+        checkBudget(name, LAYOUT_REQUESTS, (double) mHost.layoutRequests / PASSES);
+    }
+
+    /**
+     * Returns the median of the bytes allocated by a pass once warmed up, which leaves out the
+     * passes growing a collection of Robolectric now and then.
+     */
+    private double measureBytes(Pass pass) throws Exception {
+        for (int i = 0; i < WARM_UP; i++) {
+            pass.run();
+            frame();
+        }
+        final long[] bytes = new long[PASSES];
+        for (int i = 0; i < PASSES; i++) {
+            final long before = getAllocatedBytes();
+            pass.run();
+            bytes[i] = getAllocatedBytes() - before;
+            frame();
+        }
+        Arrays.sort(bytes);
+        return bytes[PASSES / 2];
+    }
+
+    /**
+     * Lays the host out again if the pass requested it, and draws it, as the next frame would, so
+     * that the next pass starts from a laid out and drawn tree.
+     */
+    private void frame() {
+        if (mHost.isLayoutRequested()) {
+            layoutHost();
+        }
+        mHost.drawFrame(mCanvas);
+        // Robolectric records every drawing, which makes each one allocate more.
+        ((ShadowCanvas) ShadowExtractor.extract(mCanvas)).resetCanvasHistory();
+    }
+
+    private void checkBudget(String name, String measure, double value) {
+        final String key = name + '.' + measure;
+        final String budget = sBudgets.getProperty(key);
+        if (budget == null) {
+            mFailures.append("\n  ").append(key).append(": no budget, measured ").append(value);
+        } else if (value > Double.parseDouble(budget)) {
+            mFailures.append("\n  ").append(key).append(": ").append(value)
+                    .append(" > ").append(budget);
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM doesn't tell.
+     */
+    private static long getAllocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
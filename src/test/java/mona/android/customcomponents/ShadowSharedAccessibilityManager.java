@@ -0,0 +1,31 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.view.accessibility.AccessibilityManager;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowAccessibilityManager;
+
+/**
+ * Returns the same accessibility manager to every view of a context, as the framework does.
+ * Robolectric creates one each time a view asks, along with an accessibility service registering
+ * observers, which would make up most of the allocations measured by {@link RenderBudgetTest}.
+ * Set for every test in {@code robolectric.properties}: tests with other shadows would run in a
+ * sandbox of their own, which Robolectric can't load along with the first one.
+ */
+@Implements(AccessibilityManager.class)
+public class ShadowSharedAccessibilityManager extends ShadowAccessibilityManager {
+
+    private static Context sContext;
+    private static AccessibilityManager sInstance;
+
+    @Implementation
+    public static AccessibilityManager getInstance(Context context) throws Exception {
+        if (sContext != context) {
+            sInstance = ShadowAccessibilityManager.getInstance(context);
+            sContext = context;
+        }
+        return sInstance;
+    }
+}
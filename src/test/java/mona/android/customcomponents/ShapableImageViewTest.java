@@ -0,0 +1,213 @@
+package mona.android.customcomponents;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ShapableImageViewTest {
+
+    private ShapableImageView mView;
+    private Canvas mCanvas;
+
+    @Before
+    public void setUp() {
+        ComponentMetrics.setEnabled(true);
+        mView = newView();
+        mCanvas = new Canvas(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+        // Robolectric's View.draw() only draws the background.
+        mView.onDraw(mCanvas);
+        ComponentMetrics.reset();
+    }
+
+    private static ShapableImageView newView() {
+        final ShapableImageView view = new ShapableImageView(RuntimeEnvironment.application);
+        view.setImageBitmap(Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888));
+        view.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, 100, 100);
+        return view;
+    }
+
+    @After
+    public void tearDown() {
+        DrawableAtlas.setEnabled(false);
+        ComponentMetrics.setEnabled(false);
+        ComponentMetrics.reset();
+    }
+
+    private static long rebuilds() {
+        return ComponentMetrics.snapshot().get(ComponentMetrics.SHAPABLE_CACHE_REBUILDS);
+    }
+
+    private long drawAndCountRebuilds() {
+        return drawAndCountRebuilds(mView);
+    }
+
+    private long drawAndCountRebuilds(ShapableImageView view) {
+        final long before = rebuilds();
+        view.onDraw(mCanvas);
+        return rebuilds() - before;
+    }
+
+    @Test
+    public void unchangedViewDrawsFromCache() {
+        assertEquals(0, drawAndCountRebuilds());
+    }
+
+    @Test
+    public void imageAlphaRebuildsComposite() {
+        mView.setImageAlpha(128);
+        assertEquals(1, drawAndCountRebuilds());
+    }
+
+    @Test
+    public void colorFilterRebuildsComposite() {
+        mView.setColorFilter(0x80ff0000, PorterDuff.Mode.SRC_ATOP);
+        assertEquals(1, drawAndCountRebuilds());
+    }
+
+    @Test
+    public void paddingChangeRebuildsComposite() {
+        mView.setPadding(4, 4, 4, 4);
+        assertEquals(1, drawAndCountRebuilds());
+        mView.setPadding(4, 4, 4, 4);
+        assertEquals(0, drawAndCountRebuilds());
+    }
+
+    @Test
+    public void cacheMissIsCompositedRightAway() {
+        final ShapableImageCache cache = new ShapableImageCache(RuntimeEnvironment.application,
+                1024 * 1024, 0);
+        mView.setImageCache(cache);
+        mView.setSourceKey("image");
+        assertEquals(1, drawAndCountRebuilds());
+
+        final ShapableImageView other = newView();
+        other.setImageCache(cache);
+        other.setSourceKey("image");
+        assertEquals(0, drawAndCountRebuilds(other));
+
+        // A color filter is not part of the key: the view composites on its own.
+        other.setColorFilter(0x80ff0000, PorterDuff.Mode.SRC_ATOP);
+        assertEquals(1, drawAndCountRebuilds(other));
+    }
+
+    /**
+     * Counts the offscreen layers drawn into it.
+     */
+    private static final class LayerCountingCanvas extends Canvas {
+        int layers;
+
+        LayerCountingCanvas(Bitmap bitmap) {
+            super(bitmap);
+        }
+
+        @Override
+        public int saveLayer(RectF bounds, Paint paint, int saveFlags) {
+            layers++;
+            return super.saveLayer(bounds, paint, saveFlags);
+        }
+
+        @Override
+        public int saveLayer(float left, float top, float right, float bottom, Paint paint,
+                int saveFlags) {
+            layers++;
+            return super.saveLayer(left, top, right, bottom, paint, saveFlags);
+        }
+    }
+
+    @Test
+    public void atlasMaskIsCompositedOnce() {
+        DrawableAtlas.setEnabled(true);
+        final AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.maskDrawable, "@android:drawable/ic_menu_add")
+                .build();
+        final ShapableImageView view = new ShapableImageView(RuntimeEnvironment.application,
+                attrs);
+        view.setImageBitmap(Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888));
+        view.setImageEffects(ImageEffect.grayscale());
+        view.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, 100, 100);
+        assertEquals(1, drawAndCountRebuilds(view));
+
+        // Later frames draw the composite, without an offscreen layer.
+        final LayerCountingCanvas canvas = new LayerCountingCanvas(
+                Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+        view.onDraw(canvas);
+        view.onDraw(canvas);
+        assertEquals(0, canvas.layers);
+        assertEquals(0, drawAndCountRebuilds(view));
+    }
+
+    @Test
+    public void blurRunsInTheBackground() throws Exception {
+        final ShapableImageCache cache = new ShapableImageCache(RuntimeEnvironment.application,
+                1024 * 1024, 0);
+        mView.setImageCache(cache);
+        mView.setSourceKey("image");
+        mView.setImageEffects(ImageEffect.blur(4));
+        // A placeholder, not shared until the blur is done
+        assertEquals(1, drawAndCountRebuilds());
+        assertEquals(0, drawAndCountRebuilds());
+        final ShapableImageView other = newView();
+        other.setImageCache(cache);
+        other.setSourceKey("image");
+        other.setImageEffects(ImageEffect.blur(4));
+        assertEquals(1, drawAndCountRebuilds(other));
+
+        ImageBlur.getBlurExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, drawAndCountRebuilds());
+        assertEquals(0, drawAndCountRebuilds());
+        final ShapableImageView third = newView();
+        third.setImageCache(cache);
+        third.setSourceKey("image");
+        third.setImageEffects(ImageEffect.blur(4));
+        assertEquals(0, drawAndCountRebuilds(third));
+    }
+
+    @Test
+    public void blurDownsamplesBySmallestRadius() {
+        assertEquals(1, ImageBlur.getDownsample(new int[] {1}));
+        assertEquals(2, ImageBlur.getDownsample(new int[] {3, 8}));
+        assertEquals(ImageBlur.MAX_DOWNSAMPLE, ImageBlur.getDownsample(new int[] {40}));
+    }
+
+    @Test
+    public void blurDoesNotDarkenTransparentEdges() {
+        // An opaque red pixel between transparent black ones
+        final int[] pixels = {0, 0xffff0000, 0};
+        final int[] scratch = new int[pixels.length];
+        ImageBlur.premultiply(pixels, pixels.length);
+        ImageBlur.boxBlurRows(pixels, scratch, pixels.length, 1, 1);
+        ImageBlur.unpremultiply(scratch, scratch.length);
+
+        for (int pixel : scratch) {
+            assertEquals(0x55, pixel >>> 24);
+            assertEquals(0xff0000, pixel & 0xffffff);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ShowHideMasterLayoutTest {
+
+    /**
+     * A pane drawn with hardware acceleration, which Robolectric doesn't have.
+     */
+    private static final class AcceleratedView extends View {
+        AcceleratedView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean isHardwareAccelerated() {
+            return true;
+        }
+    }
+
+    private ShowHideMasterLayout.AdaptiveHardwareLayerPolicy mPolicy;
+    private View mPane;
+
+    @Before
+    public void setUp() {
+        mPolicy = new ShowHideMasterLayout.AdaptiveHardwareLayerPolicy(Long.MAX_VALUE);
+        mPane = new AcceleratedView(RuntimeEnvironment.application);
+    }
+
+    private void finishTransition(int jankyFrames) {
+        final boolean layered = mPolicy.shouldUseHardwareLayer(mPane);
+        mPolicy.onTransitionFinished(layered, new ShowHideMasterLayout.TransitionMetrics(true,
+                10, new long[9], jankyFrames, 0));
+    }
+
+    @Test
+    public void losingModeIsTriedAgain() {
+        // Layers drop frames, then plain transitions drop fewer, but some.
+        finishTransition(5);
+        int plainTransitions = 0;
+        while (!mPolicy.shouldUseHardwareLayer(mPane)) {
+            finishTransition(2);
+            plainTransitions++;
+            assertTrue(plainTransitions
+                    <= ShowHideMasterLayout.AdaptiveHardwareLayerPolicy.RESAMPLE_INTERVAL);
+        }
+        // Layers are tried again, now run smoothly, and win back.
+        finishTransition(0);
+        assertTrue(mPolicy.shouldUseHardwareLayer(mPane));
+    }
+
+    @Test
+    public void smoothModeIsKept() {
+        for (int i = 0; i < 2 * ShowHideMasterLayout.AdaptiveHardwareLayerPolicy.RESAMPLE_INTERVAL;
+                i++) {
+            finishTransition(0);
+            assertTrue(mPolicy.shouldUseHardwareLayer(mPane));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package mona.android.customcomponents;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link SpringInterpolator#createMenuButtonBounce()} against the keyframes of
+ * {@code res/anim/menu_btn_anim.xml}. Plain JVM test: the interpolators don't use the framework.
+ */
+public class SpringInterpolatorTest {
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    // 0.01% of the travelled distance
+    private static final float TOLERANCE = 1e-4f;
+
+    /**
+     * The position at the end of a keyframe, in fractions of the parent height.
+     */
+    private static final class Keyframe {
+        final int endTime;
+        final float position;
+
+        Keyframe(int endTime, float position) {
+            this.endTime = endTime;
+            this.position = position;
+        }
+    }
+
+    private static List<Keyframe> readKeyframes() throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final NodeList translates = factory.newDocumentBuilder()
+                .parse(new File("src/main/res/anim/menu_btn_anim.xml"))
+                .getElementsByTagName("translate");
+
+        final List<Keyframe> keyframes = new ArrayList<Keyframe>();
+        // The first translate slides the button in from below the parent; the curve starts once
+        // it is in place, each following translate moving it from its resting position.
+        for (int i = 1; i < translates.getLength(); i++) {
+            final Element translate = (Element) translates.item(i);
+            final int endTime =
+                    Integer.parseInt(translate.getAttributeNS(ANDROID_NS, "startOffset"))
+                    + Integer.parseInt(translate.getAttributeNS(ANDROID_NS, "duration"));
+            final String delta = translate.getAttributeNS(ANDROID_NS, "toYDelta");
+            final float position = Float.parseFloat(delta.substring(0, delta.length() - 2)) / 100f;
+            keyframes.add(new Keyframe(endTime, position));
+        }
+        return keyframes;
+    }
+
+    @Test
+    public void menuButtonBounceMatchesKeyframes() throws Exception {
+        final List<Keyframe> keyframes = readKeyframes();
+        assertEquals(28, keyframes.size());
+        assertEquals(SpringInterpolator.MENU_BUTTON_BOUNCE_DURATION,
+                keyframes.get(keyframes.size() - 1).endTime);
+
+        final SpringInterpolator interpolator = SpringInterpolator.createMenuButtonBounce();
+        for (Keyframe keyframe : keyframes) {
+            final float input = (float) keyframe.endTime
+                    / SpringInterpolator.MENU_BUTTON_BOUNCE_DURATION;
+            // Keyframes are offsets from the resting position, reached at an interpolation of 1
+            final float position = 1f - interpolator.getInterpolation(input);
+            assertEquals("at " + keyframe.endTime + "ms", keyframe.position, position, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void springSettlesOnEndValue() {
+        final SpringInterpolator interpolator = new SpringInterpolator(8f, 2f * (float) Math.PI);
+        assertEquals(0f, interpolator.getInterpolation(0f), 1e-6f);
+        assertEquals(1f, interpolator.getInterpolation(1f), 1e-3f);
+    }
+
+    @Test
+    public void gravityBounceStaysInRangeAndLands() {
+        final GravityBounceInterpolator interpolator = new GravityBounceInterpolator(0.5f, 3);
+        assertEquals(0f, interpolator.getInterpolation(0f), 1e-6f);
+        assertEquals(1f, interpolator.getInterpolation(1f), 1e-6f);
+        for (int i = 0; i <= 100; i++) {
+            final float value = interpolator.getInterpolation(i / 100f);
+            assertTrue(value >= 0f && value <= 1f);
+        }
+    }
+}
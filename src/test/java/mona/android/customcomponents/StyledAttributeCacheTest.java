@@ -0,0 +1,66 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class StyledAttributeCacheTest {
+
+    private Context mContext;
+    private int mResolutions;
+    private StyledAttributeCache<Integer> mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCache = new StyledAttributeCache<Integer>(R.styleable.CheckableLinearLayout,
+                new StyledAttributeCache.Resolver<Integer>() {
+                    @Override
+                    public Integer resolve(Resources res, TypedArray a) {
+                        mResolutions++;
+                        return a.getInt(R.styleable.CheckableLinearLayout_touchMode, 0);
+                    }
+
+                    @Override
+                    public boolean isShareable(Integer values) {
+                        return true;
+                    }
+                });
+    }
+
+    @Test
+    public void sameThemeAndStyleResolveOnce() {
+        mCache.get(mContext, null, 0);
+        mCache.get(mContext, null, 0);
+        assertEquals(1, mResolutions);
+    }
+
+    @Test
+    public void configurationChangeResolvesAgain() {
+        mCache.get(mContext, null, 0);
+
+        final Resources res = mContext.getResources();
+        final Configuration configuration = new Configuration(res.getConfiguration());
+        configuration.locale = Locale.FRENCH.equals(configuration.locale)
+                ? Locale.GERMAN : Locale.FRENCH;
+        res.updateConfiguration(configuration, res.getDisplayMetrics());
+
+        mCache.get(mContext, null, 0);
+        mCache.get(mContext, null, 0);
+        assertEquals(2, mResolutions);
+    }
+}
@@ -0,0 +1,91 @@
+package mona.android.customcomponents;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SwitchableButtonTest {
+
+    /**
+     * A host counting the layout requests coming from its subtree, not attached to a window so
+     * that no traversal clears them.
+     */
+    static class CountingHost extends FrameLayout {
+        int layoutRequests;
+
+        CountingHost(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            layoutRequests++;
+            super.requestLayout();
+        }
+    }
+
+    private CountingHost mHost;
+    private SwitchableButton mButton;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        final AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.onText, "On")
+                .addAttribute(R.attr.offText, "A longer off text")
+                .addAttribute(R.attr.layoutStable, "true")
+                .build();
+        mButton = new SwitchableButton(context, attrs);
+        // Robolectric measures text as empty: keep room for it.
+        mButton.setMinimumWidth(100);
+        mHost = new CountingHost(context);
+        mHost.addView(mButton, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        layout();
+        mHost.layoutRequests = 0;
+    }
+
+    private void layout() {
+        mHost.measure(View.MeasureSpec.makeMeasureSpec(1000, View.MeasureSpec.AT_MOST),
+                View.MeasureSpec.makeMeasureSpec(1000, View.MeasureSpec.AT_MOST));
+        mHost.layout(0, 0, mHost.getMeasuredWidth(), mHost.getMeasuredHeight());
+    }
+
+    @Test
+    public void toggleKeepsSizeWithoutLayout() {
+        final int width = mButton.getWidth();
+        final int height = mButton.getHeight();
+
+        mButton.performClick();
+        assertTrue(mButton.isChecked());
+        mButton.performClick();
+        assertFalse(mButton.isChecked());
+        assertEquals(0, mHost.layoutRequests);
+        layout();
+        assertEquals(width, mButton.getWidth());
+        assertEquals(height, mButton.getHeight());
+    }
+
+    @Test
+    public void otherChangesStillRequestLayout() {
+        mButton.setTextSize(TypedValue.COMPLEX_UNIT_PX, mButton.getTextSize() * 2);
+        assertEquals(1, mHost.layoutRequests);
+    }
+}